@@ -0,0 +1,222 @@
+package project;
+
+import static project.Instruction.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * The interpreter as it was before MachineModel.execute: a TreeMap from
+ * the operation number to one lambda per operation, looked up with a
+ * boxed key on every step after the string based parity check. The
+ * lambdas are copied unchanged but for working on the fields here.
+ * Nothing runs programs with it; Benchmark measures the engines against
+ * it and the tests check that faults still happen where they did.
+ */
+class BaselineDispatch {
+
+	final Map<Integer, Consumer<Instruction>> ACTION = new TreeMap<>();
+	private final Instruction[] code;
+	private final int[] data;
+	int accum;
+	int pc;
+	boolean halted;
+
+	/**
+	 * @param code the code memory, read but not changed
+	 * @param dataSize the size of data memory
+	 */
+	BaselineDispatch(Instruction[] code, int dataSize) {
+		this.code = code;
+		data = new int[dataSize];
+		ACTION.put(OPCODES.get("NOP"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags != 0) {
+				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			pc++;
+		});
+		ACTION.put(OPCODES.get("NOT"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags != 0) {
+				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			if (accum == 0) accum = 1;
+			else accum = 0;
+			pc++;
+		});
+		ACTION.put(OPCODES.get("HALT"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags != 0) {
+				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			halted = true;
+		});
+		ACTION.put(OPCODES.get("LOD"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags == 0) accum = getData(instr.arg);
+			else if (flags == 2) accum = instr.arg;
+			else if (flags == 4) accum = getData(getData(instr.arg));
+			else {
+				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			pc++;
+		});
+		ACTION.put(OPCODES.get("STO"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags == 0) setData(instr.arg, accum);
+			else if (flags == 4) setData(getData(instr.arg),accum);
+			else {
+				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			pc++;
+		});
+		ACTION.put(OPCODES.get("ADD"), instr -> {
+			int flags = instr.opcode & 6; // remove parity bit that will have been verified
+			if (flags == 0) accum += getData(instr.arg);
+			else if (flags == 2) accum += instr.arg;
+			else if (flags == 4) accum += getData(getData(instr.arg));
+			else {
+				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			 }
+			 pc++;
+		});
+		ACTION.put(OPCODES.get("SUB"), instr -> {
+			int flags = instr.opcode & 6; // remove parity bit that will have been verified
+			if (flags == 0) accum -= getData(instr.arg);
+			else if (flags == 2) accum -= instr.arg;
+			else if (flags == 4) accum -= getData(getData(instr.arg));
+			else {
+				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			 }
+			 pc++;
+		});
+		ACTION.put(OPCODES.get("MUL"), instr -> {
+			int flags = instr.opcode & 6; // remove parity bit that will have been verified
+			if (flags == 0) accum *= getData(instr.arg);
+			else if (flags == 2) accum *= instr.arg;
+			else if (flags == 4) accum *= getData(getData(instr.arg));
+			else {
+				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			 }
+			 pc++;
+		});
+		ACTION.put(OPCODES.get("DIV"), instr -> {
+			int flags = instr.opcode & 6; // remove parity bit that will have been verified
+			if (flags == 0) {
+				if (getData(instr.arg) == 0) throw new DivideByZeroException("Cannot divide by zero.");
+				else accum /= getData(instr.arg);
+			}
+			else if (flags == 2) {
+				if (instr.arg == 0) throw new DivideByZeroException("Cannot divide by zero.");
+				else accum /= instr.arg;
+			}
+			else if (flags == 4) {
+				if (getData(getData(instr.arg)) == 0) throw new DivideByZeroException("Cannot divide by zero.");
+				else accum /= getData(getData(instr.arg));
+			}
+			else {
+				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			 }
+			 pc++;
+		});
+		ACTION.put(OPCODES.get("AND"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags == 0) {
+				if (accum != 0 && getData(instr.arg) != 0) accum = 1;
+				else accum = 0;
+			}
+			else if (flags == 2) {
+				if (accum != 0 && instr.arg != 0) accum = 1;
+				else accum = 0;
+			}
+			else {
+				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			pc++;
+		});
+		ACTION.put(OPCODES.get("JUMP"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags == 0) pc += instr.arg;
+			else if (flags == 2) pc = instr.arg;
+			else if (flags == 4) pc += getData(instr.arg);
+			else pc = getData(instr.arg);
+		});
+		ACTION.put(OPCODES.get("JMPZ"), instr -> {
+			if (accum == 0) {
+				int flags = instr.opcode & 6;
+				if (flags == 0) pc += instr.arg;
+				else if (flags == 2) pc = instr.arg;
+				else if (flags == 4) pc += getData(instr.arg);
+				else pc = getData(instr.arg);
+			}
+			else pc++;
+		});
+		ACTION.put(OPCODES.get("CMPL"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags != 0) {
+				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			if (getData(instr.arg) < 0) accum = 1;
+			else accum = 0;
+			pc++;
+		});
+		ACTION.put(OPCODES.get("CMPZ"), instr -> {
+			int flags = instr.opcode & 6;
+			if (flags != 0) {
+				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
+				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+			}
+			if (getData(instr.arg) == 0) accum = 1;
+			else accum = 0;
+			pc++;
+		});
+	}
+
+	/**
+	 * Starts again from the state of the snapshot
+	 */
+	void reset(Snapshot state) {
+		for (int i = 0; i < data.length; i++) {
+			data[i] = state.getData(i);
+		}
+		accum = state.getAccum();
+		pc = state.getPC();
+		halted = false;
+	}
+
+	private int getData(int index) {
+		return data[index];
+	}
+
+	private void setData(int index, int value) {
+		data[index] = value;
+	}
+
+	int getDataAt(int index) {
+		return data[index];
+	}
+
+	/**
+	 * Executes one instruction as the original MachineModel.step() did,
+	 * throwing the exception of a fault with pc still at the instruction
+	 */
+	void step() {
+		Instruction instr = code[pc];
+		Instruction.checkParity(instr);
+		ACTION.get(instr.opcode/8).accept(instr);
+	}
+
+}
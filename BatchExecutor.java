@@ -0,0 +1,157 @@
+package project;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Runs many programs at once, each on its own MachineModel, on a
+ * work-stealing ForkJoinPool. Every .pexe file is read from disk once
+ * per executor into a Program; jobs for the same file are bound to it
+ * and share its code. Results
+ * are handed to the caller as the jobs complete, not in job order.
+ */
+public class BatchExecutor implements AutoCloseable {
+
+	/**
+	 * A loaded program, or the Loader message if it did not load
+	 */
+	private static class Image {
+		final Program program;
+		final String error;
+
+		Image(Program program, String error) {
+			this.program = program;
+			this.error = error;
+		}
+	}
+
+	private final ForkJoinPool pool;
+	private final Map<File, Image> images = new ConcurrentHashMap<>();
+	private volatile Engine engine = Engine.INTERPRETER;
+
+	/**
+	 * Creates an executor with one worker per available processor
+	 */
+	public BatchExecutor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	public BatchExecutor(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * @param engine the engine every job is run with, see MachineModel.setEngine
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Runs all the jobs and returns when every one has completed.
+	 * @param jobs the jobs to run
+	 * @param results called once per job as soon as it completes, from
+	 * the worker thread that ran it, so it must be thread safe
+	 */
+	public void run(Collection<BatchJob> jobs, Consumer<BatchResult> results) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<>();
+		for (BatchJob job : jobs) {
+			tasks.add(pool.submit(() -> results.accept(runJob(job))));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+	}
+
+	/**
+	 * Runs all the jobs
+	 * @return the results in the order of the jobs
+	 */
+	public List<BatchResult> runAll(List<BatchJob> jobs) {
+		List<ForkJoinTask<BatchResult>> tasks = new ArrayList<>();
+		for (BatchJob job : jobs) {
+			tasks.add(pool.submit(() -> runJob(job)));
+		}
+		List<BatchResult> results = new ArrayList<>();
+		for (ForkJoinTask<BatchResult> task : tasks) {
+			results.add(task.join());
+		}
+		return results;
+	}
+
+	/**
+	 * Runs a single job on the calling thread
+	 */
+	public BatchResult runJob(BatchJob job) {
+		Image image = images.computeIfAbsent(job.getProgram().getAbsoluteFile(), BatchExecutor::load);
+		if (image.error != null) return new BatchResult(job, image.error);
+		MachineModel model = new MachineModel(() -> {});
+		try {
+			model.load(image.program);
+		}
+		catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			// the program does not fit in code memory, or its initial data in data memory
+			return new BatchResult(job, e.getMessage());
+		}
+		for (Map.Entry<Integer, Integer> entry : job.getDataOverlay().entrySet()) {
+			try {
+				model.setData(entry.getKey(), entry.getValue());
+			}
+			catch (ArrayIndexOutOfBoundsException e) {
+				return new BatchResult(job, "Data address " + entry.getKey() + " of the overlay is outside data memory");
+			}
+		}
+		model.setEngine(engine);
+		long start = System.nanoTime();
+		RunResult run = model.run(job.getMaxSteps());
+		long wallNanos = System.nanoTime() - start;
+		return new BatchResult(job, run, model.getAccum(), digest(model.getData()), wallNanos);
+	}
+
+	private static Image load(File program) {
+		try {
+			return new Image(Loader.read(program), null);
+		}
+		catch (IOException e) {
+			return new Image(null, Loader.error(program, e));
+		}
+	}
+
+	/**
+	 * 64 bit FNV-1a over the bytes of the data values
+	 */
+	static long digest(int[] data) {
+		long hash = 0xcbf29ce484222325L;
+		for (int value : data) {
+			for (int shift = 0; shift < 32; shift += 8) {
+				hash ^= (value >>> shift) & 0xff;
+				hash *= 0x100000001b3L;
+			}
+		}
+		return hash;
+	}
+
+	/**
+	 * Forgets the loaded programs, so changed files are read again
+	 */
+	public void clearCache() {
+		images.clear();
+	}
+
+	public void close() {
+		pool.shutdown();
+	}
+
+}
@@ -0,0 +1,51 @@
+package project;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One program run for BatchExecutor: a .pexe file, data values written
+ * over the data the file loads and the most instructions to execute.
+ */
+public class BatchJob {
+
+	private final File program;
+	private final Map<Integer, Integer> dataOverlay;
+	private final long maxSteps;
+
+	public BatchJob(File program, long maxSteps) {
+		this(program, Map.of(), maxSteps);
+	}
+
+	/**
+	 * @param program the .pexe file to load
+	 * @param dataOverlay data address to value, applied after loading
+	 * @param maxSteps the most instructions the run may execute
+	 */
+	public BatchJob(File program, Map<Integer, Integer> dataOverlay, long maxSteps) {
+		if (program == null) throw new IllegalArgumentException("No program file");
+		if (maxSteps < 0) throw new IllegalArgumentException("Step limit must not be negative");
+		this.program = program;
+		this.dataOverlay = new TreeMap<>(dataOverlay);
+		this.maxSteps = maxSteps;
+	}
+
+	public File getProgram() {
+		return program;
+	}
+
+	public Map<Integer, Integer> getDataOverlay() {
+		return dataOverlay;
+	}
+
+	public long getMaxSteps() {
+		return maxSteps;
+	}
+
+	public String toString() {
+		return "BatchJob [" + program.getName() + ", overlay " + dataOverlay.size()
+				+ ", max steps " + maxSteps + "]";
+	}
+
+}
@@ -0,0 +1,90 @@
+package project;
+
+/**
+ * The outcome of one BatchJob: the final machine state and how the run
+ * ended, or the Loader message if the program could not be loaded.
+ */
+public class BatchResult {
+
+	private final BatchJob job;
+	private final String loadError;
+	private final RunResult run;
+	private final int accum;
+	private final long dataDigest;
+	private final long wallNanos;
+
+	BatchResult(BatchJob job, String loadError) {
+		this.job = job;
+		this.loadError = loadError;
+		this.run = null;
+		this.accum = 0;
+		this.dataDigest = 0;
+		this.wallNanos = 0;
+	}
+
+	BatchResult(BatchJob job, RunResult run, int accum, long dataDigest, long wallNanos) {
+		this.job = job;
+		this.loadError = null;
+		this.run = run;
+		this.accum = accum;
+		this.dataDigest = dataDigest;
+		this.wallNanos = wallNanos;
+	}
+
+	public BatchJob getJob() {
+		return job;
+	}
+
+	/**
+	 * @return the message of Loader.load if the program did not load,
+	 * or why it or the data overlay did not fit the machine, null if it ran
+	 */
+	public String getLoadError() {
+		return loadError;
+	}
+
+	/**
+	 * @return how the run ended, null if the program did not load
+	 */
+	public RunResult getRunResult() {
+		return run;
+	}
+
+	public RunResult.Reason getReason() {
+		return run == null ? null : run.getReason();
+	}
+
+	public long getSteps() {
+		return run == null ? 0 : run.getSteps();
+	}
+
+	public int getPC() {
+		return run == null ? 0 : run.getPC();
+	}
+
+	public int getAccum() {
+		return accum;
+	}
+
+	/**
+	 * @return a 64 bit FNV-1a hash of the final data memory, equal for
+	 * runs that leave equal data
+	 */
+	public long getDataDigest() {
+		return dataDigest;
+	}
+
+	/**
+	 * @return the time the run took, not counting loading
+	 */
+	public long getWallNanos() {
+		return wallNanos;
+	}
+
+	public String toString() {
+		if (run == null) return "BatchResult [" + job.getProgram().getName() + ", " + loadError + "]";
+		return "BatchResult [" + job.getProgram().getName() + ", " + run + ", accum " + accum
+				+ ", digest " + Long.toHexString(dataDigest) + ", " + wallNanos / 1000 + " us]";
+	}
+
+}
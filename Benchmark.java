@@ -0,0 +1,142 @@
+package project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class Benchmark {
+
+	private static final long RUN_TIME = 2_000_000_000L; // nanoseconds per measurement
+
+	// the sample programs, as assembly source
+	static final String[] FACTORIAL = {"LOD #1", "STO 1", "CMPZ 0", "NOT", "JMPZ #C", "LOD 1", "MUL 0",
+			"STO 1", "LOD 0", "SUB #1", "STO 0", "JUMP #2", "HALT", "DATA", "0 C"};
+	static final String[] SUM = {"CMPZ 0", "NOT", "JMPZ 8", "LOD 1", "ADD 0", "STO 1", "LOD 0", "SUB #1",
+			"STO 0", "JUMP -9", "HALT", "DATA", "0 2710"};
+
+	/**
+	 * The bubble sort sample: sorts the 64 words from address A, which
+	 * start out descending
+	 */
+	static String[] sortSource() {
+		List<String> source = new ArrayList<>(List.of("LOD 2", "SUB #1", "STO 0", "CMPZ 0", "NOT", "JMPZ #26",
+				"LOD #0", "STO 1", "LOD 1", "SUB 0", "STO 6", "CMPZ 6", "NOT", "JMPZ #22", "LOD #A", "ADD 1",
+				"STO 3", "ADD #1", "STO 4", "LOD @4", "SUB @3", "STO 6", "CMPL 6", "JMPZ #1E", "LOD @3",
+				"STO 5", "LOD @4", "STO @3", "LOD 5", "STO @4", "LOD 1", "ADD #1", "STO 1", "JUMP #8",
+				"LOD 0", "SUB #1", "STO 0", "JUMP #3", "HALT", "DATA", "2 40"));
+		for (int i = 0; i < 64; i++) {
+			source.add(Integer.toHexString(0xA + i) + " " + Integer.toHexString(0xC8 - 3 * i));
+		}
+		return source.toArray(new String[0]);
+	}
+
+	/**
+	 * Assembles the lines through a temporary source file
+	 */
+	static Program assemble(String... source) throws IOException {
+		Path file = Files.createTempFile("source", ".pasm");
+		try {
+			Files.write(file, List.of(source));
+			return new SimpleAssembler().assemble(file.toString());
+		}
+		finally {
+			Files.delete(file);
+		}
+	}
+
+	/**
+	 * Runs the program through BaselineDispatch, the TreeMap of lambdas
+	 * the interpreter used before the switch in MachineModel.execute
+	 */
+	static double baselineSteps(BaselineDispatch baseline, Snapshot loaded) {
+		long steps = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < RUN_TIME) {
+			baseline.reset(loaded);
+			while (!baseline.halted) {
+				baseline.step();
+				steps++;
+			}
+		}
+		return steps * 1e3 / (System.nanoTime() - start);
+	}
+
+	static double stepCalls(MachineModel model, boolean[] halted, Snapshot loaded) {
+		long steps = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < RUN_TIME) {
+			model.restore(loaded);
+			halted[0] = false;
+			while (!halted[0]) {
+				model.step();
+				steps++;
+			}
+		}
+		return steps * 1e3 / (System.nanoTime() - start);
+	}
+
+	static double engineRuns(MachineModel model, Snapshot loaded, Engine engine) {
+		model.setEngine(engine);
+		long steps = 0;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < RUN_TIME) {
+			model.restore(loaded);
+			steps += model.run(Long.MAX_VALUE).getSteps();
+		}
+		return steps * 1e3 / (System.nanoTime() - start);
+	}
+
+	/**
+	 * Measures the samples, or the .pasm files named on the command line
+	 */
+	public static void main(String[] args) throws IOException {
+		Map<String, Program> programs = new LinkedHashMap<>();
+		if (args.length == 0) {
+			programs.put("factorial", assemble(FACTORIAL));
+			programs.put("sum", assemble(SUM));
+			programs.put("sort", assemble(sortSource()));
+		}
+		for (String arg : args) {
+			programs.put(arg, new SimpleAssembler().assemble(arg));
+		}
+		for (Map.Entry<String, Program> entry : programs.entrySet()) {
+			String name = entry.getKey();
+			if (entry.getValue() == null) {
+				System.out.println(name + ": cannot be read");
+				continue;
+			}
+			boolean[] halted = {false};
+			MachineModel model = new MachineModel(() -> halted[0] = true);
+			model.load(entry.getValue());
+			Snapshot loaded = model.snapshot();
+			BaselineDispatch baseline = new BaselineDispatch(model.getCode(), model.getDataSize());
+			System.out.printf("%-12s baseline   %8.2f Msteps/s%n", name,
+					baselineSteps(baseline, loaded));
+			System.out.printf("%-12s step()     %8.2f Msteps/s%n", name,
+					stepCalls(model, halted, loaded));
+			System.out.printf("%-12s fused      %8.2f Msteps/s, %d sites, hit rate %.1f%%%n", name,
+					engineRuns(model, loaded, Engine.INTERPRETER), model.getFusionSites(),
+					100 * model.getFusionHitRate());
+			System.out.printf("%-12s compiled   %8.2f Msteps/s%n", name,
+					engineRuns(model, loaded, Engine.COMPILED));
+			System.out.printf("%-12s tiered     %8.2f Msteps/s%n", name,
+					engineRuns(model, loaded, Engine.TIERED));
+			model.setTraceRecorder(new TraceRecorder(1 << 16));
+			System.out.printf("%-12s traced     %8.2f Msteps/s%n", name,
+					engineRuns(model, loaded, Engine.INTERPRETER));
+			model.setTraceRecorder(null);
+			model.setProfiler(new Profiler());
+			System.out.printf("%-12s profiled   %8.2f Msteps/s%n", name,
+					engineRuns(model, loaded, Engine.INTERPRETER));
+			model.setProfiler(null);
+			for (BlockTier tier : model.getBlockTiers()) {
+				System.out.println("    " + tier);
+			}
+		}
+	}
+
+}
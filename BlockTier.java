@@ -0,0 +1,65 @@
+package project;
+
+/**
+ * The state of one basic block in the tiered engine, as reported by
+ * MachineModel.getBlockTiers(). Used to tune the compile threshold.
+ */
+public class BlockTier {
+
+	public enum Tier {
+		INTERPRETED, COMPILED, NOT_COMPILABLE
+	}
+
+	private final int start;
+	private final int end;
+	private final long entries;
+	private final Tier tier;
+	private final long compileNanos;
+
+	BlockTier(int start, int end, long entries, Tier tier, long compileNanos) {
+		this.start = start;
+		this.end = end;
+		this.entries = entries;
+		this.tier = tier;
+		this.compileNanos = compileNanos;
+	}
+
+	/**
+	 * @return the code address of the first instruction of the block
+	 */
+	public int getStart() {
+		return start;
+	}
+
+	/**
+	 * @return one past the code address of the last instruction of the block
+	 */
+	public int getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return how often the interpreter entered the block, which stops
+	 * counting once the block is compiled
+	 */
+	public long getEntries() {
+		return entries;
+	}
+
+	public Tier getTier() {
+		return tier;
+	}
+
+	/**
+	 * @return the time spent compiling the block, 0 if it was not compiled
+	 */
+	public long getCompileNanos() {
+		return compileNanos;
+	}
+
+	public String toString() {
+		return "BlockTier [" + start + "-" + (end - 1) + ", " + tier + ", entries " + entries
+				+ ", compile " + compileNanos / 1000 + " us]";
+	}
+
+}
@@ -0,0 +1,583 @@
+package project;
+
+import static project.Decoder.*;
+import static project.Instruction.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Translates the predecoded code in Memory into a hidden JVM class whose
+ * run method executes the Pippin instructions as straight-line bytecode.
+ * The accumulator, program counter and step count live in locals, JUMP and
+ * JMPZ with constant targets become real branches and indirect jumps go
+ * through a tableswitch on the program counter.
+ *
+ * The generated code never throws: HALT, every instruction the predecoder
+ * marked as a fault, data addresses out of range and division by zero all
+ * leave the compiled code with the program counter on that instruction, so
+ * the interpreter executes it and the machine ends in exactly the state,
+ * and with exactly the exception, that MachineModel.step() produces.
+ * The step budget is charged per basic block: a block is only entered
+ * if the whole block fits in what is left of the budget.
+ *
+ * The class file is written as version 49 so it needs no stack map frames.
+ */
+class BytecodeCompiler {
+
+	// locals of the generated run(Memory, CPU, long) method
+	private static final int MEMORY = 1, CPU = 2, MAX = 3, ACC = 5, PC = 6, STEPS = 7, TMP = 9;
+	private static final String MEMORY_CLASS = "project/Memory";
+	private static final String CPU_CLASS = "project/MachineModel$CPU";
+	private static final String CODE_NAME = "project/CompiledPippinCode";
+
+	private final Memory memory;
+	private final int start;
+	private final int end;
+	private final int dataSize;
+	private final boolean[] leader;
+	private final int[] blockEnd;
+	private final Label[] labels;
+	private final Map<Long, Label> exits = new HashMap<>();
+	private final Label dispatch = new Label();
+	private final Label exitAtPC = new Label();
+	private final ConstantPool pool = new ConstantPool();
+	private final Code code = new Code();
+
+	private BytecodeCompiler(Memory memory, int start, int end) {
+		this.memory = memory;
+		this.start = start;
+		this.end = end;
+		dataSize = memory.getDataSize();
+		leader = leaders(memory, start, end);
+		blockEnd = new int[end - start];
+		labels = new Label[end - start];
+		findBlocks();
+	}
+
+	/**
+	 * Compiles every instruction of the program in memory
+	 * @param memory the memory holding the predecoded program
+	 * @return the compiled program
+	 */
+	static CompiledCode compileProgram(Memory memory) {
+		return compile(memory, 0, programEnd(memory));
+	}
+
+	/**
+	 * Compiles the instructions at code addresses start (inclusive) to end
+	 * (exclusive). Control can only enter at start and at the targets of
+	 * jumps inside the range; any transfer outside the range returns.
+	 * @param memory the memory holding the predecoded program
+	 * @param start the first code address compiled
+	 * @param end one past the last code address compiled
+	 * @return the compiled code
+	 */
+	static CompiledCode compile(Memory memory, int start, int end) {
+		BytecodeCompiler compiler = new BytecodeCompiler(memory, start, end);
+		byte[] classFile = compiler.generate();
+		try {
+			Class<?> cls = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+			return (CompiledCode) cls.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Generated code could not be loaded", e);
+		}
+	}
+
+	/**
+	 * @return one past the highest code address holding an instruction
+	 */
+	static int programEnd(Memory memory) {
+		int end = memory.getCodeSize();
+		while (end > 0 && memory.getOp(end - 1) == EMPTY) end--;
+		return end;
+	}
+
+	/**
+	 * Static target of a JUMP or JMPZ, or -1 if it depends on data memory
+	 */
+	static int staticTarget(int pc, int op, int arg) {
+		int mode = modeOf(op);
+		if (mode == DIRECT) return pc + arg;
+		if (mode == IMMEDIATE) return arg;
+		return -1;
+	}
+
+	static boolean isJump(int op) {
+		return !isFault(op) && (operationOf(op) == JUMP || operationOf(op) == JMPZ);
+	}
+
+	private boolean inRange(int pc) {
+		return pc >= start && pc < end;
+	}
+
+	/**
+	 * Finds the basic blocks of the code from start to end: a block starts
+	 * at start, at every constant target of a JUMP or JMPZ in the range and
+	 * after every JUMP or JMPZ. Targets of indirect jumps are not known.
+	 * @return the leaders, indexed by code address - start, with one more
+	 * element for end
+	 */
+	static boolean[] leaders(Memory memory, int start, int end) {
+		boolean[] leader = new boolean[Math.max(end - start, 0) + 1];
+		leader[0] = true;
+		for (int pc = start; pc < end; pc++) {
+			int op = memory.getCodeOp(pc); // the block structure does not change with breakpoints
+			if (isJump(op)) {
+				int target = staticTarget(pc, op, memory.getArg(pc));
+				if (target >= start && target < end) leader[target - start] = true;
+				leader[pc + 1 - start] = true;
+			}
+		}
+		return leader;
+	}
+
+	private void findBlocks() {
+		for (int pc = end - 1, next = end; pc >= start; pc--) {
+			blockEnd[pc - start] = next;
+			if (leader[pc - start]) next = pc;
+		}
+		for (int pc = start; pc < end; pc++) {
+			labels[pc - start] = new Label();
+		}
+	}
+
+	private byte[] generate() {
+		code.aload(CPU).getfield(pool.field(CPU_CLASS, "accum", "I")).istore(ACC);
+		code.aload(CPU).getfield(pool.field(CPU_CLASS, "pc", "I")).istore(PC);
+		code.op(LCONST_0).lstore(STEPS);
+		code.bind(dispatch);
+		code.iload(PC);
+		if (end > start) {
+			code.tableswitch(start, end - 1, exitAtPC, pc -> leader[pc - start] ? labels[pc - start] : exitAtPC);
+		}
+		else code.op(POP).jump(GOTO, exitAtPC);
+		for (int pc = start; pc < end; pc++) {
+			code.bind(labels[pc - start]);
+			if (leader[pc - start]) chargeBlock(pc);
+			instruction(pc, memory.getOp(pc), memory.getArg(pc));
+		}
+		for (Map.Entry<Long, Label> e : exits.entrySet()) {
+			int pc = (int) (e.getKey() >> 32);
+			int uncharge = (int) (long) e.getKey();
+			code.bind(e.getValue());
+			if (uncharge > 0) {
+				code.lload(STEPS).pushLong(uncharge).op(LSUB).lstore(STEPS);
+			}
+			code.pushInt(pc).istore(PC).jump(GOTO, exitAtPC);
+		}
+		code.bind(exitAtPC);
+		code.aload(CPU).iload(ACC).putfield(pool.field(CPU_CLASS, "accum", "I"));
+		code.aload(CPU).iload(PC).putfield(pool.field(CPU_CLASS, "pc", "I"));
+		code.lload(STEPS).op(LRETURN);
+		return classFile();
+	}
+
+	/**
+	 * Label that leaves the compiled code with the program counter at pc.
+	 * @param uncharge instructions of the current block that were charged
+	 * against the budget but will not be executed
+	 */
+	private Label exitTo(int pc, int uncharge) {
+		return exits.computeIfAbsent((long) pc << 32 | uncharge, k -> new Label());
+	}
+
+	/**
+	 * Label that continues at code address pc after a completed block
+	 */
+	private Label continueAt(int pc) {
+		if (inRange(pc) && leader[pc - start]) return labels[pc - start];
+		return exitTo(pc, 0);
+	}
+
+	private void chargeBlock(int pc) {
+		int length = blockEnd[pc - start] - pc;
+		code.lload(STEPS).pushLong(length).op(LADD).lload(MAX).op(LCMP);
+		code.jump(IFGT, exitTo(pc, 0));
+		code.lload(STEPS).pushLong(length).op(LADD).lstore(STEPS);
+	}
+
+	private boolean validAddress(int address) {
+		return address >= 0 && address < dataSize;
+	}
+
+	/**
+	 * Pushes the data word an operand refers to. Indirect operands are
+	 * range checked, leaving the compiled code if out of range.
+	 */
+	private void operand(int mode, int arg, Label bail) {
+		if (mode == IMMEDIATE) {
+			code.pushInt(arg);
+			return;
+		}
+		if (mode == INDIRECT) {
+			address(arg, bail);
+			code.aload(MEMORY).iload(TMP);
+		}
+		else {
+			code.aload(MEMORY).pushInt(arg);
+		}
+		code.invokevirtual(pool.method(MEMORY_CLASS, "getData", "(I)I"));
+	}
+
+	/**
+	 * Stores the data word at arg in TMP, leaving the compiled
+	 * code if it is not a valid data address
+	 */
+	private void address(int arg, Label bail) {
+		code.aload(MEMORY).pushInt(arg).invokevirtual(pool.method(MEMORY_CLASS, "getData", "(I)I")).istore(TMP);
+		code.iload(TMP).jump(IFLT, bail);
+		code.iload(TMP).pushInt(dataSize).jump(IF_ICMPGE, bail);
+	}
+
+	/**
+	 * Stores 1 in the accumulator if the comparison on the
+	 * value on the stack holds, 0 otherwise
+	 */
+	private void setFlag(int branchIfTrue) {
+		Label yes = new Label();
+		Label done = new Label();
+		code.jump(branchIfTrue, yes).op(ICONST_0).jump(GOTO, done);
+		code.bind(yes).op(ICONST_1);
+		code.bind(done).istore(ACC);
+	}
+
+	private void instruction(int pc, int op, int arg) {
+		Label bail = exitTo(pc, blockEnd[pc - start] - pc);
+		int mode = modeOf(op);
+		boolean direct = mode == DIRECT && !isJump(op);
+		if (isFault(op) || op == HALT << 2 || direct && !validAddress(arg) && operationOf(op) > HALT
+				|| mode >= INDIRECT && !validAddress(arg)) {
+			code.jump(GOTO, bail);
+			return;
+		}
+		switch (operationOf(op)) {
+		case NOP:
+			break;
+		case NOT:
+			code.iload(ACC);
+			setFlag(IFEQ);
+			break;
+		case LOD:
+			operand(mode, arg, bail);
+			code.istore(ACC);
+			break;
+		case STO:
+			if (mode == INDIRECT) {
+				address(arg, bail);
+				code.aload(MEMORY).iload(TMP);
+			}
+			else code.aload(MEMORY).pushInt(arg);
+			code.iload(ACC).invokevirtual(pool.method(MEMORY_CLASS, "setData", "(II)V"));
+			break;
+		case ADD:
+		case SUB:
+		case MUL:
+			operand(mode, arg, bail);
+			code.istore(TMP).iload(ACC).iload(TMP);
+			code.op(operationOf(op) == ADD ? IADD : operationOf(op) == SUB ? ISUB : IMUL).istore(ACC);
+			break;
+		case DIV:
+			operand(mode, arg, bail);
+			code.op(DUP).istore(TMP).jump(IFEQ, bail);
+			code.iload(ACC).iload(TMP).op(IDIV).istore(ACC);
+			break;
+		case AND: {
+			Label no = new Label();
+			Label done = new Label();
+			code.iload(ACC).jump(IFEQ, no);
+			operand(mode, arg, bail);
+			code.jump(IFEQ, no).op(ICONST_1).jump(GOTO, done);
+			code.bind(no).op(ICONST_0);
+			code.bind(done).istore(ACC);
+			break;
+		}
+		case CMPL:
+			operand(mode, arg, bail);
+			code.pushInt(31).op(IUSHR).istore(ACC);
+			break;
+		case CMPZ:
+			operand(mode, arg, bail);
+			setFlag(IFEQ);
+			break;
+		case JUMP:
+			jump(pc, mode, arg);
+			return;
+		case JMPZ:
+			code.iload(ACC).jump(IFNE, continueAt(pc + 1));
+			jump(pc, mode, arg);
+			return;
+		}
+		if (pc + 1 == end) code.jump(GOTO, exitTo(pc + 1, 0));
+	}
+
+	private void jump(int pc, int mode, int arg) {
+		if (mode == DIRECT || mode == IMMEDIATE) {
+			code.jump(GOTO, continueAt(staticTarget(pc, mode, arg)));
+			return;
+		}
+		if (mode == INDIRECT) code.pushInt(pc);
+		code.aload(MEMORY).pushInt(arg).invokevirtual(pool.method(MEMORY_CLASS, "getData", "(I)I"));
+		if (mode == INDIRECT) code.op(IADD);
+		code.istore(PC).jump(GOTO, dispatch);
+	}
+
+	private byte[] classFile() {
+		int thisClass = pool.classRef(CODE_NAME);
+		int superClass = pool.classRef("java/lang/Object");
+		int iface = pool.classRef("project/CompiledCode");
+		int objectInit = pool.method("java/lang/Object", "<init>", "()V");
+		int initName = pool.utf8("<init>");
+		int initType = pool.utf8("()V");
+		int runName = pool.utf8("run");
+		int runType = pool.utf8("(L" + MEMORY_CLASS + ";L" + CPU_CLASS + ";J)J");
+		int codeAttr = pool.utf8("Code");
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(49);
+			pool.write(out);
+			out.writeShort(0x0031); // public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(1);
+			out.writeShort(iface);
+			out.writeShort(0); // fields
+			out.writeShort(2); // methods
+			Code init = new Code();
+			init.aload(0).op(INVOKESPECIAL).u2(objectInit).op(RETURN);
+			method(out, 0x0001, initName, initType, codeAttr, init, 1, 1);
+			method(out, 0x0011, runName, runType, codeAttr, code, 8, TMP + 1);
+			out.writeShort(0); // attributes
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void method(DataOutputStream out, int access, int name, int type, int codeAttr,
+			Code body, int maxStack, int maxLocals) throws IOException {
+		byte[] bytecode = body.toByteArray();
+		if (bytecode.length > 0xFFFF) throw new IllegalStateException("Program too large to compile");
+		out.writeShort(access);
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1);
+		out.writeShort(codeAttr);
+		out.writeInt(12 + bytecode.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(bytecode.length);
+		out.write(bytecode);
+		out.writeShort(0); // exception table
+		out.writeShort(0); // attributes
+	}
+
+	// the JVM opcodes used by the generator
+	private static final int ICONST_0 = 3, ICONST_1 = 4, LCONST_0 = 9, BIPUSH = 16, SIPUSH = 17,
+			LDC_W = 19, LDC2_W = 20, ILOAD = 21, LLOAD = 22, ALOAD = 25, ISTORE = 54, LSTORE = 55,
+			POP = 87, DUP = 89, IADD = 96, LADD = 97, ISUB = 100, LSUB = 101, IMUL = 104, IDIV = 108,
+			IUSHR = 124, LCMP = 148, IFEQ = 153, IFNE = 154, IFLT = 155, IFGT = 157, IF_ICMPGE = 162,
+			GOTO = 167, TABLESWITCH = 170, LRETURN = 173, RETURN = 177, GETFIELD = 180, PUTFIELD = 181,
+			INVOKEVIRTUAL = 182, INVOKESPECIAL = 183;
+
+	private static class Label {
+		private int position = -1;
+		private final List<int[]> uses = new ArrayList<>(); // {instruction, patch, width}
+	}
+
+	/**
+	 * Growable bytecode buffer with label fixups
+	 */
+	private class Code {
+		private byte[] buf = new byte[1024];
+		private int size;
+		private final List<Label> used = new ArrayList<>();
+
+		Code u1(int b) {
+			if (size == buf.length) buf = Arrays.copyOf(buf, size * 2);
+			buf[size++] = (byte) b;
+			return this;
+		}
+
+		Code u2(int s) {
+			return u1(s >> 8).u1(s);
+		}
+
+		Code u4(int i) {
+			return u2(i >> 16).u2(i);
+		}
+
+		Code op(int opcode) {
+			return u1(opcode);
+		}
+
+		Code iload(int local) {
+			return u1(ILOAD).u1(local);
+		}
+
+		Code istore(int local) {
+			return u1(ISTORE).u1(local);
+		}
+
+		Code lload(int local) {
+			return u1(LLOAD).u1(local);
+		}
+
+		Code lstore(int local) {
+			return u1(LSTORE).u1(local);
+		}
+
+		Code aload(int local) {
+			return u1(ALOAD).u1(local);
+		}
+
+		Code getfield(int ref) {
+			return u1(GETFIELD).u2(ref);
+		}
+
+		Code putfield(int ref) {
+			return u1(PUTFIELD).u2(ref);
+		}
+
+		Code invokevirtual(int ref) {
+			return u1(INVOKEVIRTUAL).u2(ref);
+		}
+
+		Code pushInt(int value) {
+			if (value >= -1 && value <= 5) return u1(ICONST_0 + value);
+			if (value == (byte) value) return u1(BIPUSH).u1(value);
+			if (value == (short) value) return u1(SIPUSH).u2(value);
+			return u1(LDC_W).u2(pool.integer(value));
+		}
+
+		Code pushLong(long value) {
+			return u1(LDC2_W).u2(pool.longValue(value));
+		}
+
+		private void use(Label target, int instruction, int width) {
+			if (target.uses.isEmpty()) used.add(target);
+			target.uses.add(new int[] {instruction, size, width});
+		}
+
+		Code jump(int opcode, Label target) {
+			u1(opcode);
+			use(target, size - 1, 2);
+			return u2(0);
+		}
+
+		Code tableswitch(int low, int high, Label otherwise, IntFunction<Label> cases) {
+			int at = size;
+			u1(TABLESWITCH);
+			while (size % 4 != 0) u1(0);
+			use(otherwise, at, 4);
+			u4(0);
+			u4(low).u4(high);
+			for (int i = low; i <= high; i++) {
+				use(cases.apply(i), at, 4);
+				u4(0);
+			}
+			return this;
+		}
+
+		Code bind(Label label) {
+			label.position = size;
+			return this;
+		}
+
+		byte[] toByteArray() {
+			for (Label label : used) {
+				for (int[] use : label.uses) {
+					int offset = label.position - use[0];
+					if (use[2] == 2) {
+						if (offset != (short) offset) throw new IllegalStateException("Program too large to compile");
+						buf[use[1]] = (byte) (offset >> 8);
+						buf[use[1] + 1] = (byte) offset;
+					}
+					else {
+						for (int i = 0; i < 4; i++) buf[use[1] + i] = (byte) (offset >> (24 - 8 * i));
+					}
+				}
+			}
+			return Arrays.copyOf(buf, size);
+		}
+	}
+
+	/**
+	 * Constant pool with reuse of identical entries
+	 */
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> entries = new HashMap<>();
+		private int count = 1;
+
+		private int entry(String key, int slots, IOAction write) {
+			Integer index = entries.get(key);
+			if (index != null) return index;
+			try {
+				write.run();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			entries.put(key, count);
+			count += slots;
+			return count - slots;
+		}
+
+		int utf8(String s) {
+			return entry("U" + s, 1, () -> { out.writeByte(1); out.writeUTF(s); });
+		}
+
+		int integer(int value) {
+			return entry("I" + value, 1, () -> { out.writeByte(3); out.writeInt(value); });
+		}
+
+		int longValue(long value) {
+			return entry("J" + value, 2, () -> { out.writeByte(5); out.writeLong(value); });
+		}
+
+		int classRef(String name) {
+			int n = utf8(name);
+			return entry("C" + name, 1, () -> { out.writeByte(7); out.writeShort(n); });
+		}
+
+		private int nameAndType(String name, String type) {
+			int n = utf8(name);
+			int t = utf8(type);
+			return entry("N" + name + ":" + type, 1, () -> { out.writeByte(12); out.writeShort(n); out.writeShort(t); });
+		}
+
+		int field(String owner, String name, String type) {
+			int c = classRef(owner);
+			int nt = nameAndType(name, type);
+			return entry("F" + owner + "." + name, 1, () -> { out.writeByte(9); out.writeShort(c); out.writeShort(nt); });
+		}
+
+		int method(String owner, String name, String type) {
+			int c = classRef(owner);
+			int nt = nameAndType(name, type);
+			return entry("M" + owner + "." + name + type, 1, () -> { out.writeByte(10); out.writeShort(c); out.writeShort(nt); });
+		}
+
+		void write(DataOutputStream to) throws IOException {
+			to.writeShort(count);
+			bytes.writeTo(to);
+		}
+
+		private interface IOAction {
+			void run() throws IOException;
+		}
+	}
+
+}
@@ -5,12 +5,16 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.GridLayout;
 import java.awt.Rectangle;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.io.File;
 import javax.swing.BorderFactory;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JMenuItem;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
@@ -24,7 +28,9 @@ import project.Memory;
 public class CodeViewPanel {
 	
 	private MachineModel model;
+	private ViewMediator mediator; // null when shown on its own
 	private JScrollPane scroller;
+	private JLabel[] lineNumbers = new JLabel[Memory.CODE_SIZE];
 	private JTextField[] codeBinHex = new JTextField[Memory.CODE_SIZE];
 	private JTextField[] codeText = new JTextField[Memory.CODE_SIZE];
 	private int previousColor = -1;
@@ -34,6 +40,15 @@ public class CodeViewPanel {
 		model = m;
 	}
 	
+	/**
+	 * A panel whose lines have a menu to run to the line and to set
+	 * and remove breakpoints
+	 */
+	public CodeViewPanel(MachineModel m, ViewMediator mediator) {
+		model = m;
+		this.mediator = mediator;
+	}
+	
 	public JComponent createCodeDisplay() {
 		
 		JPanel panel = new JPanel();
@@ -60,9 +75,15 @@ public class CodeViewPanel {
 		innerPanel.add(hexPanel, BorderLayout.LINE_END);
 		
 		for(int i = 0; i < Memory.CODE_SIZE; i++) {
-			numPanel.add(new JLabel(i+": ", JLabel.RIGHT));
+			lineNumbers[i] = new JLabel(i+": ", JLabel.RIGHT);
+			numPanel.add(lineNumbers[i]);
 			codeText[i] = new JTextField(10);
 			codeBinHex[i] = new JTextField(12);
+			if(mediator != null) {
+				MouseAdapter menu = lineMenu(i);
+				lineNumbers[i].addMouseListener(menu);
+				codeText[i].addMouseListener(menu);
+			}
 			textPanel.add(codeText[i]);
 			hexPanel.add(codeBinHex[i]);
 		}
@@ -72,6 +93,31 @@ public class CodeViewPanel {
 		
 	}
 	
+	private MouseAdapter lineMenu(int line) {
+		JPopupMenu popup = new JPopupMenu();
+		JMenuItem runTo = new JMenuItem("Run to here");
+		runTo.addActionListener(e -> mediator.runToCursor(line));
+		JMenuItem toggle = new JMenuItem("Toggle breakpoint");
+		toggle.addActionListener(e -> {
+			model.setBreakpoint(line, !model.isBreakpoint(line));
+			showBreakpoint(line);
+		});
+		popup.add(runTo);
+		popup.add(toggle);
+		return new MouseAdapter() {
+			public void mousePressed(MouseEvent e) {
+				if(e.isPopupTrigger()) popup.show(e.getComponent(), e.getX(), e.getY());
+			}
+			public void mouseReleased(MouseEvent e) {
+				if(e.isPopupTrigger()) popup.show(e.getComponent(), e.getX(), e.getY());
+			}
+		};
+	}
+	
+	private void showBreakpoint(int line) {
+		lineNumbers[line].setForeground(model.isBreakpoint(line) ? Color.RED : Color.BLACK);
+	}
+	
 	public void update(String arg) {
 		if("Load Code".equals(arg)) {
 			for(int i = 0; i <= model.getProgramSize(); i++) {
@@ -86,6 +132,7 @@ public class CodeViewPanel {
 			for(int i = 0; i < Memory.CODE_SIZE; i++) { //this change?
 				codeText[i].setText("");
 				codeBinHex[i].setText("");
+				showBreakpoint(i);
 			}
 			if(previousColor >= 0 && previousColor < Memory.CODE_SIZE) {
 				codeText[previousColor].setBackground(Color.WHITE);
@@ -0,0 +1,22 @@
+package project;
+
+/**
+ * Pippin code translated to JVM bytecode by BytecodeCompiler.
+ * The generated classes are hidden classes in this package.
+ */
+interface CompiledCode {
+
+	/**
+	 * Runs the compiled instructions starting at cpu.pc. The method returns
+	 * when the step budget would be exceeded or when it reaches an instruction
+	 * it does not handle itself (HALT, an instruction that would fault or
+	 * a jump target that is not compiled), leaving cpu.pc at that instruction
+	 * so the interpreter can execute it.
+	 * @param memory the memory of the machine
+	 * @param cpu the registers, read at entry and written back on return
+	 * @param maxSteps the most instructions that may be executed
+	 * @return the number of instructions executed
+	 */
+	long run(Memory memory, MachineModel.CPU cpu, long maxSteps);
+
+}
@@ -11,6 +11,7 @@ public class ControlPanel {
 
 	private ViewMediator mediator;
 	private JButton stepButton = new JButton("Step");
+	private JButton backButton = new JButton("Step Back");
 	private JButton clearButton = new JButton("Clear");
 	private JButton runButton = new JButton("Run/Pause");
 	private JButton reloadButton = new JButton("Reload");
@@ -25,6 +26,9 @@ public class ControlPanel {
 		stepButton.setBackground(Color.WHITE);
 		stepButton.addActionListener(e -> mediator.step());
 		panel.add(stepButton);
+		backButton.setBackground(Color.WHITE);
+		backButton.addActionListener(e -> mediator.stepBack());
+		panel.add(backButton);
 		clearButton.setBackground(Color.WHITE);
 		clearButton.addActionListener(e -> mediator.clear());
 		panel.add(clearButton);
@@ -43,6 +47,7 @@ public class ControlPanel {
 	public void update() {
 		runButton.setEnabled(mediator.getCurrentState().getRunPauseActive());
 		stepButton.setEnabled(mediator.getCurrentState().getStepActive());
+		backButton.setEnabled(mediator.canStepBack());
 		clearButton.setEnabled(mediator.getCurrentState().getClearActive());
 		reloadButton.setEnabled(mediator.getCurrentState().getReloadActive());
 	}
@@ -0,0 +1,96 @@
+package project;
+
+import static project.Instruction.*;
+
+/**
+ * Predecoding of opcode bytes. Every possible opcode is mapped once to a
+ * dense operation id (operation number * 4 + addressing mode), or to a
+ * fault id if the parity, operation number or flags are not legal,
+ * so the interpreter never has to repeat those checks while running.
+ */
+public class Decoder {
+
+	// addressing modes, i.e. the flags (opcode & 6) / 2
+	public static final int DIRECT = 0, IMMEDIATE = 1, INDIRECT = 2, SPECIAL = 3;
+
+	// fault ids, all above the largest operation id 13*4 + 3
+	public static final int EMPTY = 56, BAD_PARITY = 57, BAD_OPCODE = 58;
+	// not decoded from an opcode: put in place of the op at a breakpoint
+	public static final int BREAK = 59;
+	public static final int BAD_FLAGS = 60; // + the addressing mode used
+
+	private static final byte[] OPERATION = new byte[256];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int operation = b >> 3;
+			int mode = (b & 6) >> 1;
+			int id;
+			if (operation > CMPZ) id = BAD_OPCODE;
+			else if (legalMode(operation, mode)) id = operation << 2 | mode;
+			else id = BAD_FLAGS + mode;
+			OPERATION[b] = (byte) id;
+		}
+	}
+
+	private static boolean legalMode(int operation, int mode) {
+		switch (operation) {
+		case LOD: case ADD: case SUB: case MUL: case DIV:
+			return mode != SPECIAL;
+		case STO:
+			return mode == DIRECT || mode == INDIRECT;
+		case AND:
+			return mode == DIRECT || mode == IMMEDIATE;
+		case JUMP: case JMPZ:
+			return true;
+		default:
+			return mode == DIRECT;
+		}
+	}
+
+	/**
+	 * Operation id of an opcode without looking at the parity bit,
+	 * as used when an instruction is handed to the ACTION map directly
+	 * @param opcode the opcode byte
+	 * @return the operation id or BAD_OPCODE/BAD_FLAGS
+	 */
+	static int operation(byte opcode) {
+		return OPERATION[opcode & 0xFF];
+	}
+
+	/**
+	 * Full decode of an instruction as it is placed in code memory
+	 * @param instr the instruction, null for an empty code address
+	 * @return the operation id or one of the fault ids
+	 */
+	public static int decode(Instruction instr) {
+		if (instr == null) return EMPTY;
+		if (Integer.bitCount(instr.opcode) % 2 == 1) return BAD_PARITY;
+		return OPERATION[instr.opcode & 0xFF];
+	}
+
+	/**
+	 * Full decode of an opcode as Memory stores it
+	 * @param opcode the opcode, 0..255, or Memory.NO_OPCODE for an empty
+	 * code address
+	 * @return the operation id or one of the fault ids
+	 */
+	static int decode(int opcode) {
+		if (opcode == Memory.NO_OPCODE) return EMPTY;
+		if (Integer.bitCount(opcode) % 2 == 1) return BAD_PARITY;
+		return OPERATION[opcode & 0xFF];
+	}
+
+	public static int operationOf(int id) {
+		return id >> 2;
+	}
+
+	public static int modeOf(int id) {
+		return id & 3;
+	}
+
+	public static boolean isFault(int id) {
+		return id >= EMPTY;
+	}
+
+}
@@ -0,0 +1,8 @@
+package project;
+
+/**
+ * The ways MachineModel.run can execute a program
+ */
+public enum Engine {
+	INTERPRETER, COMPILED, TIERED
+}
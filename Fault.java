@@ -0,0 +1,70 @@
+package project;
+
+/**
+ * The faults an instruction can cause. The interpreter records a fault
+ * as one of these codes with the program counter and a detail value
+ * instead of throwing; toException turns the record into the exception
+ * MachineModel.step() has always thrown for it.
+ */
+public enum Fault {
+	/** no fault */
+	NONE,
+	/** no instruction at the code address, detail is the code address */
+	NO_INSTRUCTION,
+	/** odd parity in the opcode, detail is the instruction argument */
+	PARITY,
+	/** operation number above 13, detail is the instruction argument */
+	ILLEGAL_OPCODE,
+	/** flags the operation does not accept, detail is the flags (opcode & 6) */
+	ILLEGAL_FLAGS,
+	/** division by zero, detail is the instruction argument */
+	DIVIDE_BY_ZERO,
+	/** data address out of range, detail is the address */
+	DATA_ADDRESS,
+	/** program counter out of range, detail is the program counter */
+	CODE_ADDRESS,
+	/**
+	 * no fault of the program: the engines stop at a breakpoint by
+	 * recording it like a fault, run() reports it as the reason
+	 * BREAKPOINT and getFault never returns it
+	 */
+	BREAKPOINT;
+
+	/**
+	 * Adapter to the exception based fault reporting, for a machine
+	 * with the default memory sizes
+	 * @param pc the program counter of the faulting instruction
+	 * @param detail the detail value recorded with the fault
+	 * @return the exception step() throws for this fault, null for NONE
+	 */
+	public RuntimeException toException(int pc, int detail) {
+		return toException(pc, detail, this == CODE_ADDRESS ? Memory.CODE_SIZE : Memory.DATA_SIZE);
+	}
+
+	/**
+	 * @param length the size of the memory a DATA_ADDRESS or CODE_ADDRESS
+	 * fault was out of bounds of
+	 * @see #toException(int, int)
+	 */
+	public RuntimeException toException(int pc, int detail, int length) {
+		switch (this) {
+		case NO_INSTRUCTION:
+			return new NullPointerException("No instruction at code address " + pc);
+		case PARITY:
+			return new ParityCheckException("This instruction is corrupted.");
+		case ILLEGAL_OPCODE:
+			return new IllegalInstructionException("Illegal opcode for this instruction");
+		case ILLEGAL_FLAGS:
+			String fString = "(" + (detail%8 > 3?"1":"0") + (detail%4 > 1?"1":"0") + ")";
+			return new IllegalInstructionException("Illegal flags for this instruction: " + fString);
+		case DIVIDE_BY_ZERO:
+			return new DivideByZeroException("Cannot divide by zero.");
+		case DATA_ADDRESS:
+		case CODE_ADDRESS:
+			return new ArrayIndexOutOfBoundsException(
+					"Index " + detail + " out of bounds for length " + length);
+		default:
+			return null;
+		}
+	}
+}
@@ -16,6 +16,7 @@ import project.Loader;
 import project.MachineModel;
 import project.SimpleAssembler;
 import project.FullAssembler;
+import project.Verifier;
 
 public class FilesMgr {
 	private ViewMediator mediator;
@@ -217,6 +218,15 @@ public class FilesMgr {
 		try {
 			str = Loader.load(model, currentlyExecutingFile);
 			mediator.makeReady("Load Code");
+			Verifier verifier = model.getVerifier();
+			if (verifier != null && !verifier.getProblems().isEmpty()) {
+				JOptionPane.showMessageDialog(
+						mediator.getFrame(),  
+						"The program will fault when it runs:\n" +
+								String.join("\n", verifier.getProblems()),
+								"Warning",
+								JOptionPane.OK_OPTION);
+			}
 		} catch (NumberFormatException e ) {
 			JOptionPane.showMessageDialog(
 					mediator.getFrame(),  
@@ -14,6 +14,27 @@ import java.util.stream.Stream;
 public class FullAssembler implements Assembler {
 	
 	public int assemble(String inputFileName, String outputS, StringBuilder error) {
+		int result = check(inputFileName, error);
+		if (result != 0) return result;
+		return new SimpleAssembler().assemble(inputFileName, outputS, error);
+	}
+	
+	/**
+	 * Checks the source like assemble(inputFileName, outputS, error) and
+	 * assembles it into a Program instead of a file
+	 * @return the program, null if the source has errors, which are
+	 * reported in error
+	 */
+	public Program assemble(String inputFileName, StringBuilder error) {
+		if (check(inputFileName, error) != 0) return null;
+		return new SimpleAssembler().assemble(inputFileName);
+	}
+	
+	/**
+	 * @return 0 if the source has no errors, otherwise the line number
+	 * of the first error reported in error
+	 */
+	private int check(String inputFileName, StringBuilder error) {
 		
 		List<String> source = null;
 		try (Stream<String> lines = Files.lines(Paths.get(inputFileName))) {
@@ -174,7 +195,7 @@ public class FullAssembler implements Assembler {
 			for(Integer key : errors.keySet()) error.append(errors.get(key) + "\n");
 			return ((TreeMap<Integer, String>)errors).firstKey();
 		}
-		return new SimpleAssembler(). assemble(inputFileName, outputS, error);		
+		return 0;
 		
 	}
 	
@@ -0,0 +1,110 @@
+package project;
+
+import static project.Decoder.*;
+import static project.Instruction.*;
+
+/**
+ * Superinstructions for MachineModel.runInterpreted. A pass over the
+ * predecoded program marks the start of each of these sequences:
+ *   CMPZ x; JMPZ t
+ *   CMPL x; JMPZ t
+ *   LOD x; ADD/SUB/MUL y; STO z  (x and y direct or immediate, z direct)
+ * so the interpreter can execute the whole sequence with one dispatch.
+ * A sequence is only fused if none of its later instructions is the
+ * target of a jump, so the state at every jump target is observed as
+ * before. Indirect jumps can reach any address, so a program with an
+ * indirect JUMP or JMPZ is not fused at all.
+ */
+class Fusion {
+
+	// fused operation ids, above every id the Decoder hands out
+	static final int CMPZ_JMPZ = 64, CMPL_JMPZ = 65, LOAD_ARITH_STORE = 66;
+
+	private final byte[] ops;
+	private final int[] targets; // JMPZ target of the fused compares
+	private int sites;
+	private long steps;
+	private long fusedSteps;
+
+	Fusion(Memory memory) {
+		ops = new byte[memory.getCodeSize()];
+		targets = new int[memory.getCodeSize()];
+		int end = BytecodeCompiler.programEnd(memory);
+		boolean[] target = new boolean[end + 1];
+		boolean indirect = false;
+		for (int pc = 0; pc < end; pc++) {
+			ops[pc] = (byte) memory.getOp(pc);
+			int op = memory.getCodeOp(pc); // a jump at a breakpoint still jumps when resumed
+			if (BytecodeCompiler.isJump(op)) {
+				int t = BytecodeCompiler.staticTarget(pc, op, memory.getArg(pc));
+				if (t < 0 && modeOf(op) >= INDIRECT) indirect = true;
+				else if (t >= 0 && t <= end) target[t] = true;
+			}
+		}
+		for (int pc = end; pc < ops.length; pc++) {
+			ops[pc] = (byte) memory.getOp(pc);
+		}
+		if (indirect) return;
+		for (int pc = 0; pc + 1 < end; pc++) {
+			int first = memory.getOp(pc);
+			int second = memory.getOp(pc + 1);
+			if (target[pc + 1]) continue;
+			if ((first == CMPZ << 2 || first == CMPL << 2) && operationOf(second) == JMPZ && !isFault(second)) {
+				ops[pc] = (byte) (first == CMPZ << 2 ? CMPZ_JMPZ : CMPL_JMPZ);
+				targets[pc] = BytecodeCompiler.staticTarget(pc + 1, second, memory.getArg(pc + 1));
+				sites++;
+			}
+			else if (pc + 2 < end && !target[pc + 2] && operationOf(first) == LOD && loadsValue(first)
+					&& isArithmetic(second) && loadsValue(second) && memory.getOp(pc + 2) == (STO << 2 | DIRECT)) {
+				ops[pc] = (byte) LOAD_ARITH_STORE;
+				sites++;
+			}
+		}
+	}
+
+	private static boolean loadsValue(int op) {
+		return !isFault(op) && (modeOf(op) == DIRECT || modeOf(op) == IMMEDIATE);
+	}
+
+	private static boolean isArithmetic(int op) {
+		int operation = operationOf(op);
+		return operation == ADD || operation == SUB || operation == MUL;
+	}
+
+	/**
+	 * @return the number of instructions the fused operation stands for
+	 */
+	static int length(int op) {
+		return op == LOAD_ARITH_STORE ? 3 : 2;
+	}
+
+	/**
+	 * @return the fused operation starting at pc, or the
+	 * predecoded operation if no sequence starts there
+	 */
+	int getOp(int pc) {
+		return ops[pc];
+	}
+
+	int getTarget(int pc) {
+		return targets[pc];
+	}
+
+	void record(long steps, long fusedSteps) {
+		this.steps += steps;
+		this.fusedSteps += fusedSteps;
+	}
+
+	int getSites() {
+		return sites;
+	}
+
+	/**
+	 * @return the fraction of the instructions run by runInterpreted
+	 * that were executed as part of a fused sequence
+	 */
+	double getHitRate() {
+		return steps == 0 ? 0 : (double) fusedSteps / steps;
+	}
+
+}
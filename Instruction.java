@@ -6,8 +6,8 @@ import java.util.TreeMap;
 
 public class Instruction {
 	
-	byte opcode;
-	int arg;
+	final byte opcode;
+	final int arg;
 	
 	public Instruction(byte opcode, int arg) {
 		this.opcode = opcode;
@@ -33,12 +33,17 @@ public class Instruction {
 		}
 	}
 	
+	// operation numbers, i.e. opcode/8, usable as switch labels
+	public static final int NOP = 0, NOT = 1, HALT = 2, LOD = 3, STO = 4,
+			ADD = 5, SUB = 6, MUL = 7, DIV = 8, AND = 9, JUMP = 10,
+			JMPZ = 11, CMPL = 12, CMPZ = 13;
+	
 	public static Map<String, Integer> OPCODES = Map.ofEntries(
-			entry("NOP", 0), entry("NOT", 1), entry("HALT",2),
-			entry("LOD", 3), entry("STO", 4), entry("ADD", 5), 
-			entry("SUB", 6), entry("MUL", 7), entry("DIV", 8),
-			entry("AND", 9), entry("JUMP", 10), entry("JMPZ", 11),
-			entry("CMPL", 12), entry("CMPZ", 13));
+			entry("NOP", NOP), entry("NOT", NOT), entry("HALT",HALT),
+			entry("LOD", LOD), entry("STO", STO), entry("ADD", ADD), 
+			entry("SUB", SUB), entry("MUL", MUL), entry("DIV", DIV),
+			entry("AND", AND), entry("JUMP", JUMP), entry("JMPZ", JMPZ),
+			entry("CMPL", CMPL), entry("CMPZ", CMPZ));
 	
 	public static final Map<Integer, String> MNEMONICS = new TreeMap<>();
 	
@@ -67,6 +72,22 @@ public class Instruction {
 		return buff.toString().toUpperCase();
 	}
 	
+	/**
+	 * Instructions are values: code memory makes a new object each time
+	 * one is read, so two instructions are equal if opcode and argument are
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof Instruction)) return false;
+		Instruction instr = (Instruction) other;
+		return opcode == instr.opcode && arg == instr.arg;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * opcode + arg;
+	}
+	
 	public String toString() {
 		return "Instruction [" + Integer.toString(opcode, 2) + ", " + Integer.toString(arg, 16) + "]";
 	}
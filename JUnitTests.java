@@ -2,8 +2,14 @@ package project;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
 
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -30,6 +36,70 @@ public class JUnitTests {
 		pcInit = 4;
 	}
 
+	/**
+	 * @return a program of up to 24 random instructions with direct data
+	 * addresses 0..3 and jump targets inside the program, so most of
+	 * them run for a while; some fault or use indirect operands
+	 */
+	static Program randomProgram(java.util.Random random) {
+		int[] operations = {Instruction.NOP, Instruction.NOT, Instruction.HALT, Instruction.LOD,
+				Instruction.STO, Instruction.ADD, Instruction.SUB, Instruction.MUL, Instruction.DIV,
+				Instruction.AND, Instruction.JUMP, Instruction.JMPZ, Instruction.CMPL, Instruction.CMPZ};
+		int length = 3 + random.nextInt(22);
+		Instruction[] code = new Instruction[length];
+		for (int i = 0; i < length; i++) {
+			int operation = operations[random.nextInt(operations.length)];
+			int mode;
+			int arg;
+			if (operation == Instruction.JUMP || operation == Instruction.JMPZ) {
+				mode = random.nextInt(2);
+				int target = random.nextInt(length);
+				arg = mode == Decoder.DIRECT ? target - i : target;
+			}
+			else if (operation <= Instruction.HALT) {
+				mode = Decoder.DIRECT;
+				arg = 0;
+			}
+			else {
+				mode = operation == Instruction.STO || operation >= Instruction.CMPL ? 0 : random.nextInt(2);
+				if (operation != Instruction.CMPL && operation != Instruction.CMPZ && random.nextInt(6) == 0) {
+					mode = Decoder.INDIRECT;
+				}
+				arg = mode == Decoder.IMMEDIATE ? random.nextInt(5) - 2 : random.nextInt(4);
+			}
+			code[i] = Optimizer.make(operation, mode, arg);
+		}
+		Map<Integer, Integer> data = new java.util.HashMap<>();
+		for (int i = 0; i < 4; i++) {
+			data.put(i, random.nextInt(4) - 1);
+		}
+		return Program.of("random", code, data);
+	}
+
+	/**
+	 * @return a new machine bound to the program, running on the engine
+	 */
+	static MachineModel machine(Program program, Engine engine) {
+		MachineModel machine = new MachineModel(() -> {});
+		machine.load(program);
+		machine.setEngine(engine);
+		return machine;
+	}
+
+	/**
+	 * Runs both machines with the same budget and checks they end alike
+	 */
+	static void assertSameRun(String name, MachineModel expected, MachineModel actual, long maxSteps) {
+		RunResult want = expected.run(maxSteps);
+		RunResult got = actual.run(maxSteps);
+		assertEquals(name + ": reason", want.getReason(), got.getReason());
+		assertEquals(name + ": steps", want.getSteps(), got.getSteps());
+		assertEquals(name + ": fault", want.getFault(), got.getFault());
+		assertEquals(name + ": pc", want.getPC(), got.getPC());
+		assertEquals(name + ": accumulator", expected.getAccum(), actual.getAccum());
+		assertArrayEquals(name + ": data", expected.getData(), actual.getData());
+	}
+
 
 	@Test 
 	// NOP only increments the program counter
@@ -1957,5 +2027,1354 @@ public class JUnitTests {
 		model.setPC(pcInit);
 		model.step();
 	}
-}
 
+	@Test
+	// run executes until HALT and reports it, with every engine
+	public void testRunHalts() {
+		for (Engine engine : Engine.values()) {
+			setup();
+			model.setEngine(engine);
+			model.setCode(pcInit, new Instruction((byte)0b00011011,5)); // LOD #5
+			model.setCode(pcInit+1, new Instruction((byte)0b00100001,0)); // STO 0
+			model.setCode(pcInit+2, new Instruction((byte)0b00010001,0)); // HALT
+			model.setPC(pcInit);
+			RunResult result = model.run(100);
+			dataCopy[0] = 5;
+			assertArrayEquals(dataCopy, model.getData());
+			assertEquals("Halted", RunResult.Reason.HALTED, result.getReason());
+			assertEquals("Steps counted", 3, result.getSteps());
+			assertEquals("Program counter on HALT", pcInit+2, model.getPC());
+		}
+	}
+
+	@Test
+	// run reports a fault instead of throwing it
+	public void testRunFault() {
+		for (Engine engine : Engine.values()) {
+			setup();
+			model.setEngine(engine);
+			model.setCode(pcInit, new Instruction((byte)0b00000000,0)); // NOP
+			model.setCode(pcInit+1, new Instruction((byte)0b01000010,0)); // DIV #0
+			model.setPC(pcInit);
+			model.setAccum(accInit);
+			RunResult result = model.run(100);
+			assertEquals("Fault", RunResult.Reason.FAULT, result.getReason());
+			assertEquals("Exception", DivideByZeroException.class, result.getException().getClass());
+			assertEquals("Faulting instruction", pcInit+1, result.getPC());
+			assertEquals("Steps before the fault", 1, result.getSteps());
+			assertEquals("Accumulator unchanged", accInit, model.getAccum());
+		}
+	}
+
+	@Test
+	// run stops after the step budget
+	public void testRunStepLimit() {
+		for (Engine engine : Engine.values()) {
+			setup();
+			model.setEngine(engine);
+			model.setCode(pcInit, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+			model.setPC(pcInit);
+			RunResult result = model.run(1000);
+			assertEquals("Step limit", RunResult.Reason.STEP_LIMIT, result.getReason());
+			assertEquals("Steps", 1000, result.getSteps());
+			assertEquals("Program counter", pcInit, model.getPC());
+		}
+	}
+
+	@Test
+	// in fault code mode step records the fault instead of throwing
+	public void testFaultCodeMode() {
+		model.setFaultCodeMode(true);
+		model.setCode(pcInit, new Instruction((byte)0b00100001,-1)); // STO -1
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		model.step();
+		assertEquals("Fault", Fault.DATA_ADDRESS, model.getFault());
+		assertEquals("Faulting instruction", pcInit, model.getFaultPC());
+		assertEquals("Offending address", -1, model.getFaultDetail());
+		assertEquals("Program counter unchanged", pcInit, model.getPC());
+		assertEquals("Exception", ArrayIndexOutOfBoundsException.class,
+				model.getFault().toException(model.getFaultPC(), model.getFaultDetail()).getClass());
+	}
+
+	@Test
+	// a batch runs every job on its own machine with its own data overlay
+	public void testBatchExecutor() throws java.io.IOException {
+		java.io.File file = java.io.File.createTempFile("batch", ".pexe");
+		file.deleteOnExit();
+		try (java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.FileOutputStream(file))) {
+			out.writeByte(0b00011000); // LOD 0
+			out.writeInt(0);
+			out.writeByte(0b00101011); // ADD #1
+			out.writeInt(1);
+			out.writeByte(0b00010001); // HALT
+			out.writeByte(-1);
+			out.writeInt(0);
+			out.writeInt(10);
+		}
+		try (BatchExecutor batch = new BatchExecutor(2)) {
+			List<BatchJob> jobs = new ArrayList<>();
+			jobs.add(new BatchJob(file, 100));
+			jobs.add(new BatchJob(file, Map.of(0, 20), 100));
+			jobs.add(new BatchJob(file, 1));
+			List<BatchResult> results = batch.runAll(jobs);
+			assertEquals("Loaded data", 11, results.get(0).getAccum());
+			assertEquals("Overlay", 21, results.get(1).getAccum());
+			assertEquals("Halted", RunResult.Reason.HALTED, results.get(1).getReason());
+			assertEquals("Step limit", RunResult.Reason.STEP_LIMIT, results.get(2).getReason());
+			assertEquals("Same data", results.get(0).getDataDigest(), results.get(2).getDataDigest());
+		}
+	}
+
+	@Test
+	// a job that cannot be set up fails on its own and the rest of the batch runs
+	public void testBatchExecutorBadOverlay() throws java.io.IOException {
+		java.io.File file = java.io.File.createTempFile("batch", ".pexe");
+		file.deleteOnExit();
+		try (java.io.FileOutputStream out = new java.io.FileOutputStream(file)) {
+			out.write(Benchmark.assemble(Benchmark.SUM).getBytes());
+		}
+		try (BatchExecutor batch = new BatchExecutor(2)) {
+			List<BatchJob> jobs = new ArrayList<>();
+			jobs.add(new BatchJob(file, Long.MAX_VALUE));
+			jobs.add(new BatchJob(file, Map.of(Memory.DATA_SIZE, 1), Long.MAX_VALUE));
+			jobs.add(new BatchJob(file, Map.of(-1, 1), Long.MAX_VALUE));
+			jobs.add(new BatchJob(file, Long.MAX_VALUE));
+			List<BatchResult> results = batch.runAll(jobs);
+			assertEquals("Ran", RunResult.Reason.HALTED, results.get(0).getReason());
+			assertEquals("Overlay past the end", "Data address " + Memory.DATA_SIZE
+					+ " of the overlay is outside data memory", results.get(1).getLoadError());
+			assertEquals("Negative overlay", "Data address -1 of the overlay is outside data memory",
+					results.get(2).getLoadError());
+			assertEquals("Still ran", RunResult.Reason.HALTED, results.get(3).getReason());
+			assertEquals("Same result", results.get(0).getDataDigest(), results.get(3).getDataDigest());
+		}
+	}
+
+	@Test
+	// a program whose initial data is outside data memory fails its job and the rest of the batch runs
+	public void testBatchExecutorBadData() throws java.io.IOException {
+		java.io.File good = java.io.File.createTempFile("batch", ".pexe");
+		good.deleteOnExit();
+		java.nio.file.Files.write(good.toPath(), Benchmark.assemble(Benchmark.SUM).getBytes());
+		java.io.File bad = java.io.File.createTempFile("batch", ".pexe");
+		bad.deleteOnExit();
+		Instruction[] code = {new Instruction((byte)0b00010001,0)}; // HALT
+		java.nio.file.Files.write(bad.toPath(), Program.of("bad", code, Map.of(Memory.DATA_SIZE, 1)).getBytes());
+		try (BatchExecutor batch = new BatchExecutor(2)) {
+			List<BatchJob> jobs = new ArrayList<>();
+			jobs.add(new BatchJob(good, Long.MAX_VALUE));
+			jobs.add(new BatchJob(bad, Long.MAX_VALUE));
+			jobs.add(new BatchJob(good, Long.MAX_VALUE));
+			List<BatchResult> results = batch.runAll(jobs);
+			assertEquals("Ran", RunResult.Reason.HALTED, results.get(0).getReason());
+			assertEquals("Bad data", "Initial data address " + Memory.DATA_SIZE + " is outside data memory 0.."
+					+ (Memory.DATA_SIZE - 1), results.get(1).getLoadError());
+			assertEquals("No run", null, results.get(1).getRunResult());
+			assertEquals("Still ran", RunResult.Reason.HALTED, results.get(2).getReason());
+			List<BatchResult> streamed = new java.util.concurrent.CopyOnWriteArrayList<>();
+			batch.run(jobs, streamed::add);
+			assertEquals("Every job reported", 3, streamed.size());
+		}
+	}
+
+	@Test
+	// a machine stuck in a loop does not keep the others from running
+	public void testMachineFarm() throws InterruptedException {
+		try (MachineFarm farm = new MachineFarm(1000)) {
+			MachineModel loop = new MachineModel(() -> {});
+			loop.setCode(0, new Instruction((byte)0b01010011,0)); // JUMP #0
+			MachineModel halts = new MachineModel(() -> {});
+			halts.setCode(0, new Instruction((byte)0b00011011,5)); // LOD #5
+			halts.setCode(1, new Instruction((byte)0b00010001,0)); // HALT
+			MachineFarm.Machine looping = farm.add(loop);
+			MachineFarm.Machine halting = farm.add(halts);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (halting.getState() == MachineFarm.State.RUNNING && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals("Halted", MachineFarm.State.HALTED, halting.getState());
+			assertEquals("Accumulator", 5, halts.getAccum());
+			looping.pause();
+			assertEquals("Paused", MachineFarm.State.PAUSED, looping.getState());
+			looping.kill();
+			assertEquals("Removed", 1, farm.getMachines().size());
+		}
+	}
+
+	@Test
+	// restore puts back the registers and memory of the snapshot
+	public void testSnapshotRestore() {
+		model.setCode(pcInit, new Instruction((byte)0b00011011,5)); // LOD #5
+		model.setCode(pcInit+1, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setPC(pcInit);
+		model.setAccum(accInit);
+		Snapshot saved = model.snapshot();
+		model.step();
+		model.step();
+		model.setCode(pcInit+2, new Instruction((byte)0b00010001,0)); // HALT
+		model.restore(saved);
+		assertArrayEquals(dataCopy, model.getData());
+		assertEquals("Program counter", pcInit, model.getPC());
+		assertEquals("Accumulator", accInit, model.getAccum());
+		assertEquals("Code restored", null, model.getCode(pcInit+2));
+		model.step();
+		assertEquals("Runs again", 5, model.getAccum());
+	}
+
+	@Test
+	// the replayer rebuilds the state after every recorded step
+	public void testTraceReplay() throws java.io.IOException {
+		java.nio.file.Path file = java.nio.file.Files.createTempFile("trace", ".bin");
+		file.toFile().deleteOnExit();
+		model.setCode(pcInit, new Instruction((byte)0b00011011,5)); // LOD #5
+		model.setCode(pcInit+1, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setCode(pcInit+2, new Instruction((byte)0b00101011,1)); // ADD #1
+		model.setCode(pcInit+3, new Instruction((byte)0b00100001,1)); // STO 1
+		model.setCode(pcInit+4, new Instruction((byte)0b00010001,0)); // HALT
+		model.setPC(pcInit);
+		try (TraceRecorder trace = new TraceRecorder(2, file)) {
+			model.setTraceRecorder(trace);
+			RunResult result = model.run(100);
+			assertEquals("Halted", RunResult.Reason.HALTED, result.getReason());
+			trace.flush();
+			TraceReplayer replay = new TraceReplayer(trace);
+			assertEquals("Steps", 5, replay.getSteps());
+			assertEquals("Write", 1, replay.getWriteAddress(3));
+			Snapshot before = replay.stateAt(0);
+			assertEquals("Initial data", dataCopy[0], before.getData(0));
+			Snapshot middle = replay.stateAt(2);
+			assertEquals("Accumulator", 5, middle.getAccum());
+			assertEquals("Program counter", pcInit+2, middle.getPC());
+			assertEquals("Written", 5, middle.getData(0));
+			assertEquals("Not yet written", dataCopy[1], middle.getData(1));
+			model.restore(replay.stateAt(5));
+			assertEquals("Final data", 6, model.getData(1));
+		}
+	}
+
+	@Test
+	// a change that is not a step starts the trace over, so stateAt stays right
+	public void testTraceReplayAfterSetData() {
+		model.setCode(pcInit, new Instruction((byte)0b00011000,0)); // LOD 0
+		model.setCode(pcInit+1, new Instruction((byte)0b00101011,1)); // ADD #1
+		model.setCode(pcInit+2, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setCode(pcInit+3, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+		model.setPC(pcInit);
+		TraceRecorder trace = new TraceRecorder(100);
+		model.setTraceRecorder(trace);
+		model.run(8);
+		model.setData(0, 50);
+		TraceReplayer replay = new TraceReplayer(trace);
+		assertEquals("Started over", 0, replay.getSteps());
+		assertEquals("From the write", 50, replay.stateAt(0).getData(0));
+		model.run(4);
+		assertEquals("Steps since", 4, replay.getSteps());
+		assertEquals("Replayed", 51, replay.stateAt(4).getData(0));
+		assertEquals("Same as the machine", model.getData(0), replay.stateAt(4).getData(0));
+		model.setAccum(7);
+		model.setPC(pcInit+1);
+		model.run(2);
+		Snapshot state = replay.stateAt(2);
+		assertEquals("Accumulator", 8, state.getAccum());
+		assertEquals("Data", 8, state.getData(0));
+		model.setCode(pcInit+1, new Instruction((byte)0b00101011,10)); // ADD #10
+		assertEquals("Code change", 0, replay.getSteps());
+		assertEquals("New code", new Instruction((byte)0b00101011,10), trace.getInitialState().getCode(pcInit+1));
+	}
+
+	@Test
+	// the profiler counts every address, operation and branch direction
+	public void testProfiler() {
+		model.setData(0, 3);
+		model.setCode(0, new Instruction((byte)0b00011000,0)); // LOD 0
+		model.setCode(1, new Instruction((byte)0b00110011,1)); // SUB #1
+		model.setCode(2, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setCode(3, new Instruction((byte)0b01011001,2)); // JMPZ 2
+		model.setCode(4, new Instruction((byte)0b01010011,0)); // JUMP #0
+		model.setCode(5, new Instruction((byte)0b00010001,0)); // HALT
+		model.setPC(0);
+		Profiler profiler = new Profiler();
+		model.setProfiler(profiler);
+		RunResult result = model.run(1000);
+		assertEquals("Halted", RunResult.Reason.HALTED, result.getReason());
+		assertEquals("Steps", result.getSteps(), profiler.getSteps());
+		assertEquals("Loop body", 3, profiler.getCount(1));
+		assertEquals("Immediate SUB", 3, profiler.getOpCount(Instruction.SUB, Decoder.IMMEDIATE));
+		assertEquals("Taken", 1, profiler.getTaken(3));
+		assertEquals("Not taken", 2, profiler.getNotTaken(3));
+		assertEquals("Report starts with the hottest", true,
+				profiler.report(model).split("\n")[1].trim().startsWith("0"));
+	}
+
+	@Test
+	// samples of a running machine only hit the addresses it executes
+	public void testSamplingProfiler() throws Exception {
+		model.setCode(pcInit, new Instruction((byte)0b00000000,0)); // NOP
+		model.setCode(pcInit+1, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+		model.setPC(pcInit);
+		try (SamplingProfiler sampler = new SamplingProfiler(200, 1000)) {
+			sampler.add(model, "loop");
+			sampler.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (sampler.getSamples() < 10 && System.currentTimeMillis() < deadline) {
+				assertEquals("Runs", RunResult.Reason.STEP_LIMIT, model.run(1_000_000).getReason());
+			}
+			sampler.stop();
+			assertEquals("Not running", -1, model.getPublishedPC());
+			long[] histogram = sampler.getHistogram(model);
+			assertEquals("All samples in the loop", sampler.getSamples(), histogram[pcInit] + histogram[pcInit+1]);
+			StringBuilder folded = new StringBuilder();
+			sampler.writeFolded(folded);
+			assertEquals("Folded stacks", true, folded.toString().startsWith("loop;" + pcInit + " NOP"));
+		}
+	}
+
+	@Test
+	// with a loop check on, samples still fall at random points instead of every loopInterval steps
+	public void testSamplingWithLoopCheck() throws Exception {
+		// four instructions, so a publication every 1000 steps would always see pcInit
+		model.setCode(pcInit, new Instruction((byte)0b00101011,1)); // ADD #1
+		model.setCode(pcInit+1, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setCode(pcInit+2, new Instruction((byte)0b00000000,0)); // NOP
+		model.setCode(pcInit+3, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+		model.setPC(pcInit);
+		model.setLoopCheckInterval(1000);
+		try (SamplingProfiler sampler = new SamplingProfiler(200, 100)) {
+			sampler.add(model, "loop");
+			sampler.start();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (sampler.getSamples() < 40 && System.currentTimeMillis() < deadline) {
+				assertEquals("Runs", RunResult.Reason.STEP_LIMIT, model.run(1_000_000).getReason());
+			}
+			sampler.stop();
+			long[] histogram = sampler.getHistogram(model);
+			int hit = 0;
+			for (int pc = pcInit; pc < pcInit + 4; pc++) {
+				if (histogram[pc] > 0) hit++;
+			}
+			assertEquals("Samples spread over the loop", true, hit > 1);
+		}
+	}
+
+	@Test
+	// a loop that keeps coming back to the same state is stopped
+	public void testLoopDetection() {
+		for (Engine engine : Engine.values()) {
+			setup();
+			model.setEngine(engine);
+			model.setLoopCheckInterval(7);
+			model.setCode(pcInit, new Instruction((byte)0b00011011,5)); // LOD #5
+			model.setCode(pcInit+1, new Instruction((byte)0b00100001,0)); // STO 0
+			model.setCode(pcInit+2, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+			model.setPC(pcInit);
+			RunResult result = model.run(Long.MAX_VALUE);
+			assertEquals("Endless loop", RunResult.Reason.NON_TERMINATING, result.getReason());
+			assertEquals("Found soon", true, result.getSteps() < 100);
+			// a counter never repeats its state
+			model.setCode(pcInit, new Instruction((byte)0b00011000,0)); // LOD 0
+			model.setCode(pcInit+1, new Instruction((byte)0b00101011,1)); // ADD #1
+			model.setCode(pcInit+2, new Instruction((byte)0b00100001,0)); // STO 0
+			model.setCode(pcInit+3, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+			model.setPC(pcInit);
+			assertEquals("Counter", RunResult.Reason.STEP_LIMIT, model.run(10000).getReason());
+		}
+	}
+
+	@Test
+	// write and address limits stop the run right after the instruction that passes them
+	public void testRunLimits() {
+		for (Engine engine : Engine.values()) {
+			setup();
+			model.setEngine(engine);
+			model.setCode(pcInit, new Instruction((byte)0b00011000,0)); // LOD 0
+			model.setCode(pcInit+1, new Instruction((byte)0b00101011,1)); // ADD #1
+			model.setCode(pcInit+2, new Instruction((byte)0b00100001,0)); // STO 0
+			model.setCode(pcInit+3, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+			model.setPC(pcInit);
+			model.setWriteLimit(10);
+			RunResult result = model.run(Long.MAX_VALUE);
+			assertEquals("Write limit", RunResult.Reason.WRITE_LIMIT, result.getReason());
+			assertEquals("Eleventh write", 44 - 1, result.getSteps());
+			assertEquals("Written", dataCopy[0] + 11, model.getData(0));
+			model.setWriteLimit(-1);
+			model.setAddressLimit(1);
+			model.setCode(pcInit+2, new Instruction((byte)0b00100001,1)); // STO 1
+			model.setPC(pcInit);
+			result = model.run(Long.MAX_VALUE);
+			assertEquals("Address limit", RunResult.Reason.ADDRESS_LIMIT, result.getReason());
+			assertEquals("Second address", 3, result.getSteps());
+			model.setAddressLimit(-1);
+			model.setTimeLimit(1_000_000);
+			assertEquals("Time limit", RunResult.Reason.TIME_LIMIT, model.run(Long.MAX_VALUE).getReason());
+			model.setTimeLimit(-1);
+		}
+	}
+
+	@Test
+	// another thread can cancel a run
+	public void testCancel() throws InterruptedException {
+		model.setCode(pcInit, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+		model.setPC(pcInit);
+		java.util.concurrent.atomic.AtomicBoolean returned = new java.util.concurrent.atomic.AtomicBoolean();
+		Thread canceller = new Thread(() -> {
+			while (!returned.get()) {
+				model.cancel();
+				Thread.yield();
+			}
+		});
+		canceller.start();
+		RunResult result = model.run(Long.MAX_VALUE);
+		returned.set(true);
+		canceller.join();
+		assertEquals("Cancelled", RunResult.Reason.CANCELLED, result.getReason());
+	}
+
+	@Test
+	// a large paged machine only allocates the pages written
+	public void testPagedMemory() {
+		MachineModel big = new MachineModel(() -> {}, 1 << 20, 64, 4096);
+		assertEquals("Data size", 1 << 20, big.getDataSize());
+		assertEquals("Code size", 64, big.getCodeSize());
+		big.setCode(0, new Instruction((byte)0b00011011,7)); // LOD #7
+		big.setCode(1, new Instruction((byte)0b00100001,1000000)); // STO 1000000
+		big.setCode(2, new Instruction((byte)0b00011000,500000)); // LOD 500000
+		big.setCode(3, new Instruction((byte)0b00010001,0)); // HALT
+		Snapshot clean = big.snapshot();
+		RunResult result = big.run(100);
+		assertEquals("Halted", RunResult.Reason.HALTED, result.getReason());
+		assertEquals("Written", 7, big.getData(1000000));
+		assertEquals("Never written", 0, big.getAccum());
+		big.restore(clean);
+		assertEquals("Restored", 0, big.getData(1000000));
+		big.setCode(1, new Instruction((byte)0b00100001,1 << 20)); // STO 2^20
+		big.setPC(0);
+		result = big.run(100);
+		assertEquals("Fault", Fault.DATA_ADDRESS, result.getFault());
+		assertEquals("Message", "Index 1048576 out of bounds for length 1048576", result.getException().getMessage());
+	}
+
+	@Test
+	// data mapped from a file is kept in the file between machines
+	public void testMappedMemory() throws java.io.IOException {
+		java.nio.file.Path file = java.nio.file.Files.createTempFile("data", ".bin");
+		file.toFile().deleteOnExit();
+		MachineModel first = new MachineModel(() -> {}, file, 1024, 16);
+		first.setCode(0, new Instruction((byte)0b00011011,9)); // LOD #9
+		first.setCode(1, new Instruction((byte)0b00100001,1000)); // STO 1000
+		first.setCode(2, new Instruction((byte)0b00010001,0)); // HALT
+		assertEquals("Halted", RunResult.Reason.HALTED, first.run(10).getReason());
+		assertEquals("Changed", 1000, first.getChangedDataIndex());
+		first.forceData();
+		java.nio.ByteBuffer bytes = java.nio.ByteBuffer.wrap(java.nio.file.Files.readAllBytes(file))
+				.order(java.nio.ByteOrder.LITTLE_ENDIAN);
+		assertEquals("In the file", 9, bytes.getInt(4000));
+		MachineModel second = new MachineModel(() -> {}, file, 1024, 16);
+		assertEquals("Reopened", 9, second.getData(1000));
+		second.restore(new MachineModel(() -> {}, 1024, 16, 0).snapshot());
+		assertEquals("Restored", 0, second.getData(1000));
+	}
+
+	@Test
+	// the dirty set holds the written addresses and checkpoints share clean pages
+	public void testDirtyTracking() {
+		MachineModel big = new MachineModel(() -> {}, 1 << 16, 16, 1024);
+		big.setDirtyTracking(true);
+		big.setCode(0, new Instruction((byte)0b00011011,3)); // LOD #3
+		big.setCode(1, new Instruction((byte)0b00100001,5000)); // STO 5000
+		big.setCode(2, new Instruction((byte)0b00100001,5)); // STO 5
+		big.setCode(3, new Instruction((byte)0b00100001,5000)); // STO 5000
+		big.setCode(4, new Instruction((byte)0b00010001,0)); // HALT
+		Snapshot first = big.checkpoint(null);
+		big.run(10);
+		assertArrayEquals(new int[] {5000, 5}, big.getDirtyData());
+		assertArrayEquals(new int[] {4, 0}, big.getDirtyPages());
+		assertEquals("Page size", 1024, big.getDirtyPageSize());
+		Snapshot second = big.checkpoint(first);
+		assertEquals("Cleared", 0, big.getDirtyData().length);
+		assertEquals("Copied", 3, second.getData(5000));
+		assertEquals("Old copy kept", 0, first.getData(5000));
+		assertSame("Shared", first.pages[1], second.pages[1]);
+		big.setData(2000, 8);
+		Snapshot third = big.checkpoint(second);
+		assertSame("Unchanged page shared", second.pages[4], third.pages[4]);
+		assertEquals("Written", 8, third.getData(2000));
+		big.restore(first);
+		assertEquals("Restore marks everything", 1 << 16, big.getDirtyData().length);
+		assertEquals("Every page", 64, big.getDirtyPages().length);
+		Snapshot fourth = big.checkpoint(third);
+		assertEquals("Unallocated page not copied", null, fourth.pages[4]);
+		assertEquals("Restored", 0, fourth.getData(5000));
+		big.setData(7, 1);
+		assertArrayEquals(new int[] {7}, big.getDirtyData());
+		assertArrayEquals(new int[] {0}, big.getDirtyPages());
+	}
+
+	@Test
+	// watchpoints stop after the access or call back and let the machine go on
+	public void testWatchpoints() {
+		model.setCode(pcInit, new Instruction((byte)0b00011011,1)); // LOD #1
+		model.setCode(pcInit+1, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setCode(pcInit+2, new Instruction((byte)0b00101011,1)); // ADD #1
+		model.setCode(pcInit+3, new Instruction((byte)0b01010011,pcInit+1)); // JUMP #pcInit+1
+		model.setPC(pcInit);
+		Watchpoint five = Watchpoint.onValue(0, v -> v == 5);
+		model.addWatchpoint(five);
+		RunResult result = model.run(1000);
+		assertEquals("Stopped", RunResult.Reason.WATCHPOINT, result.getReason());
+		assertEquals("After the store", pcInit+2, result.getPC());
+		WatchEvent event = model.getWatchEvent();
+		assertEquals("PC", pcInit+1, event.getPC());
+		assertEquals("Old value", 4, event.getOldValue());
+		assertEquals("Text", "Write 0 at " + (pcInit+1) + " STO 0: 4 -> 5", event.toString());
+		List<WatchEvent> seen = new ArrayList<>();
+		model.removeWatchpoint(five);
+		model.addWatchpoint(new Watchpoint(0, Watchpoint.Kind.WRITE, null, seen::add));
+		assertEquals("Callbacks do not stop", RunResult.Reason.STEP_LIMIT, model.run(9).getReason());
+		assertEquals("Calls", 3, seen.size());
+		model.clearWatchpoints();
+		model.setCode(pcInit+2, new Instruction((byte)0b00011000,7)); // LOD 7
+		model.addWatchpoint(Watchpoint.onRead(7));
+		model.getData(7); // not an instruction
+		model.setPC(pcInit+1);
+		result = model.run(1000);
+		assertEquals("Read", RunResult.Reason.WATCHPOINT, result.getReason());
+		assertEquals("Read value", dataCopy[7], model.getWatchEvent().getValue());
+	}
+
+	@Test
+	// every engine stops before a breakpoint and goes on from it
+	public void testBreakpoints() {
+		model.setCode(pcInit, new Instruction((byte)0b00011011,3)); // LOD #3
+		model.setCode(pcInit+1, new Instruction((byte)0b00110011,1)); // SUB #1
+		model.setCode(pcInit+2, new Instruction((byte)0b01011001,2)); // JMPZ 2
+		model.setCode(pcInit+3, new Instruction((byte)0b01010011,pcInit+1)); // JUMP #pcInit+1
+		model.setCode(pcInit+4, new Instruction((byte)0b00010001,0)); // HALT
+		model.setPC(pcInit);
+		Snapshot start = model.snapshot();
+		for (Engine engine : Engine.values()) {
+			model.restore(start);
+			model.setEngine(engine);
+			model.setBreakpoint(pcInit+1, true);
+			model.setBreakpoint(pcInit+4, true);
+			for (int accum = 3; accum > 0; accum--) {
+				RunResult result = model.run(100);
+				assertEquals(engine + " stopped", RunResult.Reason.BREAKPOINT, result.getReason());
+				assertEquals(engine + " at", pcInit+1, result.getPC());
+				assertEquals(engine + " before", accum, model.getAccum());
+			}
+			assertEquals(engine + " at HALT", pcInit+4, model.run(100).getPC());
+			assertEquals(engine + " halts", RunResult.Reason.HALTED, model.run(100).getReason());
+			model.clearBreakpoints();
+			model.restore(start);
+			RunResult result = model.runTo(pcInit+3, 100);
+			assertEquals(engine + " run to", pcInit+3, result.getPC());
+			assertEquals(engine + " steps", 3, result.getSteps());
+			assertEquals(engine + " removed", false, model.isBreakpoint(pcInit+3));
+		}
+		model.restore(start);
+		model.setBreakpoint(pcInit, true);
+		MachineModel other = new MachineModel(() -> {});
+		other.restore(model.snapshot());
+		assertEquals("Snapshots leave breakpoints out", RunResult.Reason.HALTED, other.run(100).getReason());
+		model.step();
+		assertEquals("step() ignores breakpoints", 3, model.getAccum());
+	}
+
+	@Test
+	// rewinding puts back the state of every earlier step
+	public void testUndoLog() {
+		model.setCode(pcInit, new Instruction((byte)0b00011011,0)); // LOD #0
+		model.setCode(pcInit+1, new Instruction((byte)0b00101011,1)); // ADD #1
+		model.setCode(pcInit+2, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setCode(pcInit+3, new Instruction((byte)0b01010011,pcInit+1)); // JUMP #pcInit+1
+		model.setPC(pcInit);
+		model.setUndoLog(new UndoLog(1000, 64));
+		List<Snapshot> states = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			states.add(model.snapshot());
+			model.step();
+		}
+		states.add(model.snapshot());
+		assertEquals("Nothing before the start", 0, new MachineModel(() -> {}).rewind(1));
+		for (int back : new int[] {1, 3, 130, 5, 200}) {
+			int steps = (int) model.getUndoLog().getSteps();
+			assertEquals("Rewound", back, model.rewind(back));
+			Snapshot expected = states.get(steps - back);
+			assertEquals("Program counter", expected.getPC(), model.getPC());
+			assertEquals("Accumulator", expected.getAccum(), model.getAccum());
+			assertEquals("Data", expected.getData(0), model.getData(0));
+		}
+		assertEquals("Steps left", 61, model.getUndoLog().getSteps());
+		model.run(100);
+		assertEquals("Runs on", states.get(161).getData(0), model.getData(0));
+		assertEquals("Back to the start", 161, model.rewind(1000));
+		assertEquals("First value", dataCopy[0], model.getData(0));
+		assertEquals("No more", false, model.stepBack());
+	}
+
+	@Test
+	// a change made from outside the program empties the undo log instead of being undone wrongly
+	public void testUndoLogExternalChanges() {
+		model.setCode(pcInit, new Instruction((byte)0b00101011,1)); // ADD #1
+		model.setCode(pcInit+1, new Instruction((byte)0b00100001,0)); // STO 0
+		model.setCode(pcInit+2, new Instruction((byte)0b01010011,pcInit)); // JUMP #pcInit
+		model.setPC(pcInit);
+		model.setAccum(0);
+		model.setUndoLog(new UndoLog(1000, 64));
+		model.run(6);
+		model.setData(0, 50);
+		assertEquals("Data", 0, model.getUndoLog().getUndoable());
+		assertEquals("Nothing to undo", false, model.stepBack());
+		assertEquals("Write kept", 50, model.getData(0));
+		model.run(3);
+		model.setAccum(7);
+		assertEquals("Accumulator", 0, model.getUndoLog().getUndoable());
+		model.run(3);
+		model.setPC(pcInit);
+		assertEquals("Program counter", 0, model.getUndoLog().getUndoable());
+		model.step();
+		assertEquals("Logging again", true, model.stepBack());
+		assertEquals("Back", pcInit, model.getPC());
+	}
+
+	@Test
+	// the optimizer folds constants and drops what does not change the data
+	public void testOptimizer() {
+		Instruction[] program = {
+				new Instruction((byte)0b00011011,3), // LOD #3
+				new Instruction((byte)0b00101011,4), // ADD #4
+				new Instruction((byte)0b00100001,0), // STO 0
+				new Instruction((byte)0b00011000,0), // LOD 0
+				new Instruction((byte)0b01011001,3), // JMPZ 3
+				new Instruction((byte)0b01010011,8), // JUMP #8
+				new Instruction((byte)0b00100001,1), // STO 1
+				new Instruction((byte)0b00010001,0), // HALT
+				new Instruction((byte)0b01010011,9), // JUMP #9
+				new Instruction((byte)0b00110011,2), // SUB #2
+				new Instruction((byte)0b00100001,1), // STO 1
+				new Instruction((byte)0b01010011,7)}; // JUMP #7
+		Optimizer optimizer = new Optimizer();
+		Instruction[] optimized = optimizer.optimize(program);
+		assertEquals("Instructions left", 7, optimized.length);
+		assertEquals("Removed", program.length - optimized.length, optimizer.getRemoved());
+		assertEquals("Folded", 7, optimized[0].arg);
+		MachineModel[] models = {new MachineModel(() -> {}), new MachineModel(() -> {})};
+		long[] steps = new long[2];
+		for (int m = 0; m < 2; m++) {
+			Instruction[] code = m == 0 ? program : optimized;
+			for (int i = 0; i < code.length; i++) {
+				models[m].setCode(i, code[i]);
+			}
+			steps[m] = models[m].run(100).getSteps();
+		}
+		assertArrayEquals("Same data", models[0].getData(), models[1].getData());
+		assertEquals("Result", 5, models[1].getData(1));
+		assertEquals("Steps saved", 4, steps[0] - steps[1]);
+	}
+
+	/**
+	 * Checks that the program optimizes to the expected instructions and
+	 * leaves the same data behind
+	 */
+	static void assertOptimized(String name, Map<Integer, Integer> data, Instruction[] program, Instruction... expected) {
+		Instruction[] optimized = new Optimizer().optimize(program);
+		assertArrayEquals(name, expected, optimized);
+		MachineModel before = machine(Program.of(name, program, data), Engine.INTERPRETER);
+		MachineModel after = machine(Program.of(name, optimized, data), Engine.INTERPRETER);
+		assertEquals(name + ": halted", RunResult.Reason.HALTED, before.run(1000).getReason());
+		assertEquals(name + ": halted", RunResult.Reason.HALTED, after.run(1000).getReason());
+		assertArrayEquals(name + ": data", before.getData(), after.getData());
+	}
+
+	@Test
+	// a jump to a chain of jumps goes straight to its end, and the chain is dropped
+	public void testOptimizerThreading() {
+		Instruction[] program = {
+				Optimizer.make(Instruction.LOD, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.JMPZ, Decoder.DIRECT, 4), // to 5
+				Optimizer.make(Instruction.ADD, Decoder.IMMEDIATE, 1),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 1),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.JUMP, Decoder.IMMEDIATE, 7),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.JUMP, Decoder.IMMEDIATE, 3)};
+		Optimizer optimizer = new Optimizer();
+		optimizer.optimize(program);
+		assertEquals("Threaded", 2, optimizer.getThreaded()); // the JMPZ and the JUMP #7
+		for (int value : new int[] {0, 4}) {
+			assertOptimized("data " + value, Map.of(0, value), program,
+					Optimizer.make(Instruction.LOD, Decoder.DIRECT, 0),
+					Optimizer.make(Instruction.JMPZ, Decoder.DIRECT, 2), // to the STO
+					Optimizer.make(Instruction.ADD, Decoder.IMMEDIATE, 1),
+					Optimizer.make(Instruction.STO, Decoder.DIRECT, 1),
+					Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0));
+		}
+	}
+
+	@Test
+	// a JMPZ on an accumulator known when optimizing becomes a JUMP or disappears
+	public void testOptimizerKnownJMPZ() {
+		Instruction[] taken = {
+				Optimizer.make(Instruction.LOD, Decoder.IMMEDIATE, 0),
+				Optimizer.make(Instruction.JMPZ, Decoder.DIRECT, 3), // to 4
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 1),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 2),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0)};
+		// the JUMP skips the STO 1 and HALT, which are dropped, and then jumps to the next instruction
+		assertOptimized("taken", Map.of(), taken,
+				Optimizer.make(Instruction.LOD, Decoder.IMMEDIATE, 0),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 2),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0));
+		Instruction[] notTaken = taken.clone();
+		notTaken[0] = Optimizer.make(Instruction.LOD, Decoder.IMMEDIATE, 5);
+		assertOptimized("not taken", Map.of(), notTaken,
+				Optimizer.make(Instruction.LOD, Decoder.IMMEDIATE, 5),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 1),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0));
+	}
+
+	@Test
+	// instructions after a HALT that no jump reaches are dropped
+	public void testOptimizerUnreachable() {
+		Instruction[] program = {
+				Optimizer.make(Instruction.LOD, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 1),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.ADD, Decoder.IMMEDIATE, 3),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 2),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0)};
+		Optimizer optimizer = new Optimizer();
+		optimizer.optimize(program);
+		assertEquals("Removed", 3, optimizer.getRemoved());
+		assertOptimized("unreachable", Map.of(0, 9), program,
+				Optimizer.make(Instruction.LOD, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 1),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0));
+	}
+
+	@Test
+	// relative jumps are moved to the new address of their target
+	public void testOptimizerRelocation() {
+		Instruction[] program = {
+				Optimizer.make(Instruction.LOD, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.SUB, Decoder.IMMEDIATE, 1),
+				Optimizer.make(Instruction.NOP, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.JMPZ, Decoder.DIRECT, 2), // to 6
+				Optimizer.make(Instruction.JUMP, Decoder.DIRECT, -4), // to 1
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0)};
+		assertOptimized("relocated", Map.of(0, 3), program,
+				Optimizer.make(Instruction.LOD, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.SUB, Decoder.IMMEDIATE, 1),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.JMPZ, Decoder.DIRECT, 2),
+				Optimizer.make(Instruction.JUMP, Decoder.DIRECT, -3),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0));
+	}
+
+	@Test
+	// a program with an indirect jump could go anywhere, so it is returned as it is
+	public void testOptimizerIndirectJump() {
+		Instruction[] program = {
+				Optimizer.make(Instruction.LOD, Decoder.IMMEDIATE, 3),
+				Optimizer.make(Instruction.ADD, Decoder.IMMEDIATE, 4),
+				Optimizer.make(Instruction.NOP, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.JUMP, Decoder.INDIRECT, 0),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0)};
+		Optimizer optimizer = new Optimizer();
+		Instruction[] optimized = optimizer.optimize(program);
+		assertArrayEquals("Unchanged", program, optimized);
+		assertEquals("A copy", false, program == optimized);
+		assertEquals("Nothing removed", 0, optimizer.getRemoved());
+		assertEquals("Nothing folded", 0, optimizer.getFolded());
+	}
+
+	@Test
+	// the verifier accepts a program that stays inside memory and lists the problems of one that does not
+	public void testVerifier() {
+		MachineModel machine = new MachineModel(() -> {});
+		machine.setCode(0, new Instruction((byte)0b00011000,3)); // LOD 3
+		machine.setCode(1, new Instruction((byte)0b00101011,1)); // ADD #1
+		machine.setCode(2, new Instruction((byte)0b00100001,3)); // STO 3
+		machine.setCode(3, new Instruction((byte)0b00110011,10)); // SUB #10
+		machine.setCode(4, new Instruction((byte)0b01011001,2)); // JMPZ 2
+		machine.setCode(5, new Instruction((byte)0b01010011,0)); // JUMP #0
+		machine.setCode(6, new Instruction((byte)0b00010001,0)); // HALT
+		Verifier verifier = machine.verify();
+		assertEquals("Verified", true, verifier.isVerified());
+		assertEquals("No problems", 0, verifier.getProblems().size());
+		assertSame("Kept", verifier, machine.getVerifier());
+		RunResult result = machine.run(1000);
+		assertEquals("Halted", RunResult.Reason.HALTED, result.getReason());
+		assertEquals("Counted", 10, machine.getData(3));
+		machine.setCode(7, new Instruction((byte)0b00100100,3)); // STO @3
+		assertEquals("Dropped with the code", null, machine.getVerifier());
+		machine.setCode(1, new Instruction((byte)0b00101000,Memory.DATA_SIZE)); // ADD DATA_SIZE
+		machine.setCode(5, new Instruction((byte)0b01010011,20)); // JUMP #20
+		verifier = machine.verify();
+		assertEquals("Not verified", false, verifier.isVerified());
+		assertEquals("Problems", 3, verifier.getProblems().size());
+		assertEquals("Checked at run time", List.of(7), verifier.getChecked());
+		machine.setPC(0);
+		result = machine.run(1000);
+		assertEquals("Data fault", Fault.DATA_ADDRESS, result.getFault());
+		assertEquals("At", 1, result.getPC());
+	}
+
+	/**
+	 * @return a machine with the program written into it one address
+	 * at a time, so it is not verified and runs with every check
+	 */
+	static MachineModel unverified(Program program) {
+		MachineModel machine = new MachineModel(() -> {});
+		for (int i = 0; i < program.getLength(); i++) {
+			machine.setCode(i, program.getCode(i));
+		}
+		program.getData().forEach(machine::setData);
+		assertEquals("Not verified", null, machine.getVerifier());
+		return machine;
+	}
+
+	@Test
+	// a verified program runs without checks to the same steps, data and fault as with them
+	public void testVerifiedRun() throws java.io.IOException {
+		List<Program> programs = new ArrayList<>(List.of(Benchmark.assemble(Benchmark.FACTORIAL), Benchmark.assemble(Benchmark.SUM), Benchmark.assemble(Benchmark.sortSource())));
+		java.util.Random random = new java.util.Random(23);
+		while (programs.size() < 500) {
+			Program program = randomProgram(random);
+			if (machine(program, Engine.INTERPRETER).getVerifier().isVerified()) programs.add(program);
+		}
+		for (Program program : programs) {
+			MachineModel verified = machine(program, Engine.INTERPRETER);
+			assertEquals("Verified", true, verified.getVerifier().isVerified());
+			MachineModel checked = unverified(program);
+			for (int run = 0; run < 3; run++) {
+				assertSameRun(program + " run " + run, checked, verified, 5000);
+			}
+		}
+	}
+
+	@Test
+	// code memory keeps negative opcodes, empty addresses and snapshots apart
+	public void testCodeArrays() {
+		MachineModel machine = new MachineModel(() -> {});
+		Instruction load = new Instruction((byte)0b00011011,-7); // LOD #-7
+		Instruction high = new Instruction((byte)0b11111111,3); // opcode with the sign bit set
+		machine.setCode(0, load);
+		machine.setCode(2, high);
+		assertEquals("Same instruction", load, machine.getCode(0));
+		assertEquals("Empty", null, machine.getCode(1));
+		assertEquals("Sign bit", high, machine.getCode(2));
+		assertArrayEquals("Range", new Instruction[] {load, null, high}, machine.getCode(0, 3));
+		Snapshot saved = machine.snapshot();
+		machine.setCode(0, null);
+		assertEquals("Snapshot", load, saved.getCode(0));
+		machine.restore(saved);
+		assertEquals("Restored", load, machine.getCode(0));
+		machine.step();
+		assertEquals("Runs", -7, machine.getAccum());
+	}
+
+	@Test
+	// changing code shared with a program or a snapshot copies it first
+	public void testCodeCopyOnWrite() throws java.io.IOException {
+		Program program = Benchmark.assemble(Benchmark.SUM);
+		Instruction halt = new Instruction((byte)0b00010001,0); // HALT
+		Instruction first = program.getCode(0);
+		MachineModel writer = machine(program, Engine.INTERPRETER);
+		MachineModel other = machine(program, Engine.INTERPRETER);
+		Snapshot saved = writer.snapshot();
+		writer.setCode(0, halt);
+		assertEquals("Written", halt, writer.getCode(0));
+		assertEquals("Other machine", first, other.getCode(0));
+		assertEquals("Snapshot", first, saved.getCode(0));
+		assertEquals("Program", first, machine(program, Engine.INTERPRETER).getCode(0));
+		writer.setBreakpoint(3, true);
+		assertEquals("No breakpoint shared", RunResult.Reason.HALTED, other.run(Long.MAX_VALUE).getReason());
+		MachineModel restored = new MachineModel(() -> {});
+		restored.restore(saved);
+		restored.setCode(1, halt);
+		assertEquals("Snapshot after restore", program.getCode(1), saved.getCode(1));
+		assertEquals("Restored copy", halt, restored.getCode(1));
+		writer.restore(saved);
+		assertEquals("Restore undoes the write", first, writer.getCode(0));
+		writer.clearBreakpoints();
+		writer.run(Long.MAX_VALUE);
+		assertEquals("Same run", other.getData(1), writer.getData(1));
+	}
+
+	@Test
+	// a program read from a file is the program written, and machines bound to it run it
+	public void testProgram() throws java.io.IOException {
+		Instruction[] code = {
+				new Instruction((byte)0b00011000,0), // LOD 0
+				new Instruction((byte)0b00101011,1), // ADD #1
+				new Instruction((byte)0b00100001,1), // STO 1
+				new Instruction((byte)0b00010001,0)}; // HALT
+		Program program = Program.of("count", code, Map.of(0, 41));
+		java.io.File file = java.io.File.createTempFile("program", ".pexe");
+		file.deleteOnExit();
+		java.nio.file.Files.write(file.toPath(), program.getBytes());
+		Program read = Loader.read(file);
+		assertEquals("Same hash", program.getHash(), read.getHash());
+		assertEquals("Same code", code[1], read.getCode(1));
+		MachineModel first = new MachineModel(() -> {});
+		MachineModel second = new MachineModel(() -> {});
+		first.load(program);
+		second.load(read);
+		assertSame("Bound", program, first.getProgram());
+		assertEquals("Verified", true, first.getVerifier().isVerified());
+		first.setCode(1, new Instruction((byte)0b00101011,2)); // ADD #2
+		assertEquals("Unbound", null, first.getProgram());
+		assertEquals("Halted", RunResult.Reason.HALTED, first.run(10).getReason());
+		assertEquals("Halted", RunResult.Reason.HALTED, second.run(10).getReason());
+		assertEquals("Changed code", 43, first.getData(1));
+		assertEquals("Program code", 42, second.getData(1));
+		first.load(program);
+		assertEquals("Program unchanged", code[1], first.getCode(1));
+		assertEquals("Data cleared", 0, first.getData(1));
+		first.run(10);
+		assertEquals("Runs again", 42, first.getData(1));
+	}
+
+	@Test
+	// a program that does not fit leaves the machine as it was
+	public void testProgramLoadRejected() throws java.io.IOException {
+		Program program = Benchmark.assemble(Benchmark.SUM);
+		MachineModel machine = machine(program, Engine.INTERPRETER);
+		machine.run(7);
+		Snapshot before = machine.snapshot();
+		Verifier verifier = machine.getVerifier();
+		Instruction[] code = {new Instruction((byte)0b00010001,0)}; // HALT
+		try {
+			machine.load(Program.of("bad data", code, Map.of(0, 1, Memory.DATA_SIZE, 2)));
+			fail("Loaded");
+		} catch (ArrayIndexOutOfBoundsException e) {
+			assertEquals("Message", "Initial data address " + Memory.DATA_SIZE
+					+ " is outside data memory 0.." + (Memory.DATA_SIZE - 1), e.getMessage());
+		}
+		Instruction[] tooLong = new Instruction[Memory.CODE_SIZE + 1];
+		java.util.Arrays.fill(tooLong, code[0]);
+		try {
+			machine.load(Program.of("too long", tooLong, Map.of()));
+			fail("Loaded");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Message", "The program has " + tooLong.length + " instructions, code memory only "
+					+ Memory.CODE_SIZE, e.getMessage());
+		}
+		assertSame("Still bound", program, machine.getProgram());
+		assertSame("Still verified", verifier, machine.getVerifier());
+		assertEquals("Program counter", before.getPC(), machine.getPC());
+		assertEquals("Accumulator", before.getAccum(), machine.getAccum());
+		for (int i = 0; i < Memory.DATA_SIZE; i++) {
+			assertEquals("Data " + i, before.getData(i), machine.getData(i));
+		}
+		assertEquals("Runs on", RunResult.Reason.HALTED, machine.run(Long.MAX_VALUE).getReason());
+	}
+
+	@Test
+	// machines bound to the same program share its code and verifier but not their changes
+	public void testProgramShared() throws java.io.IOException {
+		Program program = Benchmark.assemble(Benchmark.SUM);
+		MachineModel first = machine(program, Engine.INTERPRETER);
+		MachineModel second = machine(program, Engine.INTERPRETER);
+		assertSame("Verified once", first.getVerifier(), second.getVerifier());
+		MachineModel larger = new MachineModel(() -> {}, 2 * Memory.DATA_SIZE, Memory.CODE_SIZE, 0);
+		larger.load(program);
+		assertEquals("Verified for its size", false, first.getVerifier() == larger.getVerifier());
+		first.setData(0, 3);
+		first.setCode(4, new Instruction((byte)0b00101011,1)); // ADD #1 instead of ADD 0
+		assertEquals("Data apart", 0x2710, second.getData(0));
+		assertEquals("Code apart", program.getCode(4), second.getCode(4));
+		assertEquals("Still bound", program, second.getProgram());
+		assertEquals("Halted", RunResult.Reason.HALTED, first.run(Long.MAX_VALUE).getReason());
+		assertEquals("Counted", 3, first.getData(1));
+		assertEquals("Halted", RunResult.Reason.HALTED, second.run(Long.MAX_VALUE).getReason());
+		assertEquals("Summed", 0x2710 * 0x2711 / 2, second.getData(1));
+		MachineModel third = machine(program, Engine.INTERPRETER);
+		assertEquals("Program unchanged", program.getCode(4), third.getCode(4));
+		assertEquals("Initial data", 0x2710, third.getData(0));
+	}
+
+	@Test
+	// the compiled engine ends the sample programs like the interpreter
+	public void testCompiledSamples() throws java.io.IOException {
+		for (String[] source : List.of(Benchmark.FACTORIAL, Benchmark.SUM, Benchmark.sortSource())) {
+			Program program = Benchmark.assemble(source);
+			assertSameRun(program.getName(), machine(program, Engine.INTERPRETER),
+					machine(program, Engine.COMPILED), 1_000_000);
+		}
+	}
+
+	@Test
+	// a step budget that ends inside a compiled block stops where the interpreter stops
+	public void testCompiledStepLimit() throws java.io.IOException {
+		Program program = Benchmark.assemble(Benchmark.FACTORIAL);
+		for (int maxSteps = 0; maxSteps < 40; maxSteps++) {
+			MachineModel interpreted = machine(program, Engine.INTERPRETER);
+			MachineModel compiled = machine(program, Engine.COMPILED);
+			assertSameRun("budget " + maxSteps, interpreted, compiled, maxSteps);
+			// and runs on from there
+			assertSameRun("after " + maxSteps, interpreted, compiled, 1000);
+		}
+	}
+
+	@Test
+	// a fault in the middle of a block is handed back by the compiled code with the right pc
+	public void testCompiledFaultInBlock() throws java.io.IOException {
+		String[][] sources = {
+				{"LOD #5", "STO 0", "DIV 1", "STO 2", "HALT"}, // divide by zero
+				{"LOD #5", "STO 0", "LOD @0", "ADD 7FFF", "HALT", "DATA", "5 7FFF"}, // indirect out of range
+				{"LOD #5", "ADD #1", "STO 7FFF", "HALT"}, // direct out of range
+				{"LOD #5", "STO 0", "JUMP #40"}}; // no instruction at the target
+		for (String[] source : sources) {
+			Program program = Benchmark.assemble(source);
+			MachineModel interpreted = machine(program, Engine.INTERPRETER);
+			MachineModel compiled = machine(program, Engine.COMPILED);
+			assertSameRun(source[2], interpreted, compiled, 100);
+			assertEquals(source[2] + ": faulted", RunResult.Reason.FAULT, compiled.run(100).getReason());
+		}
+	}
+
+	@Test
+	// a program too large to compile is interpreted, and compiling is not tried again
+	public void testCompiledTooLarge() {
+		int size = 1 << 15;
+		MachineModel interpreted = new MachineModel(() -> {}, Memory.DATA_SIZE, size, 64);
+		MachineModel compiled = new MachineModel(() -> {}, Memory.DATA_SIZE, size, 64);
+		compiled.setEngine(Engine.COMPILED);
+		for (int i = 0; i + 1 < size; i += 2) {
+			Instruction add = new Instruction((byte)0b00101011,1); // ADD #1
+			Instruction store = new Instruction((byte)0b00100001,i % 100); // STO i % 100
+			interpreted.setCode(i, add);
+			interpreted.setCode(i + 1, store);
+			compiled.setCode(i, add);
+			compiled.setCode(i + 1, store);
+		}
+		interpreted.setCode(size - 1, new Instruction((byte)0b00010001,0)); // HALT
+		compiled.setCode(size - 1, new Instruction((byte)0b00010001,0)); // HALT
+		assertSameRun("large", interpreted, compiled, 1000);
+		assertEquals("Failed", true, compiled.isCompileFailed());
+		assertSameRun("rest", interpreted, compiled, Long.MAX_VALUE);
+		assertEquals("Still failed", true, compiled.isCompileFailed());
+		compiled.setCode(0, new Instruction((byte)0b00010001,0)); // HALT
+		assertEquals("Tried again after a change", false, compiled.isCompileFailed());
+	}
+
+	@Test
+	// the tiered engine ends random programs like the interpreter, compiling hot blocks early
+	public void testTieredRandomPrograms() {
+		java.util.Random random = new java.util.Random(4);
+		for (int n = 0; n < 2000; n++) {
+			Program program = randomProgram(random);
+			MachineModel tiered = machine(program, Engine.TIERED);
+			tiered.setTierThreshold(1 + n % 3);
+			MachineModel interpreted = machine(program, Engine.INTERPRETER);
+			for (int run = 0; run < 3; run++) {
+				assertSameRun("program " + n + " run " + run, interpreted, tiered, 97);
+			}
+		}
+	}
+
+	@Test
+	// a block is compiled once it has been entered threshold times
+	public void testTieredThreshold() throws java.io.IOException {
+		Program program = Benchmark.assemble(Benchmark.SUM); // blocks 0..2, 3..9 and 10
+		MachineModel tiered = machine(program, Engine.TIERED);
+		MachineModel interpreted = machine(program, Engine.INTERPRETER);
+		tiered.setTierThreshold(20);
+		assertSameRun("cold", interpreted, tiered, 100);
+		BlockTier loop = tiered.getBlockTiers().get(0);
+		assertEquals("Loop head", 0, loop.getStart());
+		assertEquals("Entries", 10, loop.getEntries());
+		assertEquals("Still interpreted", BlockTier.Tier.INTERPRETED, loop.getTier());
+		assertSameRun("warm", interpreted, tiered, 100);
+		assertEquals("Compiled", BlockTier.Tier.COMPILED, tiered.getBlockTiers().get(0).getTier());
+		assertEquals("Body compiled", BlockTier.Tier.COMPILED, tiered.getBlockTiers().get(1).getTier());
+		assertSameRun("hot", interpreted, tiered, Long.MAX_VALUE);
+	}
+
+	@Test
+	// a step budget that ends inside a compiled block stops where the interpreter stops
+	public void testTieredStepLimit() throws java.io.IOException {
+		Program program = Benchmark.assemble(Benchmark.SUM);
+		MachineModel tiered = machine(program, Engine.TIERED);
+		MachineModel interpreted = machine(program, Engine.INTERPRETER);
+		tiered.setTierThreshold(1);
+		// budgets that are not multiples of the block lengths end inside blocks
+		for (int maxSteps = 1; maxSteps < 30; maxSteps++) {
+			assertSameRun("budget " + maxSteps, interpreted, tiered, maxSteps);
+		}
+		assertEquals("Compiled", BlockTier.Tier.COMPILED, tiered.getBlockTiers().get(1).getTier());
+	}
+
+	@Test
+	// a block too large to compile stays interpreted
+	public void testTieredTooLarge() {
+		int size = 1 << 15;
+		MachineModel interpreted = new MachineModel(() -> {}, Memory.DATA_SIZE, size, 64);
+		MachineModel tiered = new MachineModel(() -> {}, Memory.DATA_SIZE, size, 64);
+		tiered.setEngine(Engine.TIERED);
+		tiered.setTierThreshold(1);
+		for (int i = 0; i < size - 1; i++) {
+			Instruction instr = i % 2 == 0 ? new Instruction((byte)0b00101011,1) // ADD #1
+					: new Instruction((byte)0b00100001,i % 100); // STO i % 100
+			interpreted.setCode(i, instr);
+			tiered.setCode(i, instr);
+		}
+		interpreted.setCode(size - 1, new Instruction((byte)0b00010001,0)); // HALT
+		tiered.setCode(size - 1, new Instruction((byte)0b00010001,0)); // HALT
+		assertSameRun("large", interpreted, tiered, Long.MAX_VALUE);
+		assertEquals("Not compilable", BlockTier.Tier.NOT_COMPILABLE, tiered.getBlockTiers().get(0).getTier());
+	}
+
+	/**
+	 * @return CMPZ 0; JMPZ +2; HALT; LOD 1; ADD y; STO 2; HALT with
+	 * data 0 = 5 and 1 = 7, two fused sequences, the compare jumps
+	 */
+	static Program fusedProgram(int addArg) {
+		Instruction[] code = {
+				Optimizer.make(Instruction.CMPZ, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.JMPZ, Decoder.DIRECT, 2),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0),
+				Optimizer.make(Instruction.LOD, Decoder.DIRECT, 1),
+				Optimizer.make(Instruction.ADD, Decoder.DIRECT, addArg),
+				Optimizer.make(Instruction.STO, Decoder.DIRECT, 2),
+				Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0)};
+		Map<Integer, Integer> data = new java.util.HashMap<>();
+		data.put(0, 5);
+		data.put(1, 7);
+		return Program.of("fused", code, data);
+	}
+
+	@Test
+	// each instruction of a fused sequence counts as a step
+	public void testFusionSteps() {
+		MachineModel machine = machine(fusedProgram(0), Engine.INTERPRETER);
+		RunResult result = machine.run(Long.MAX_VALUE);
+		assertEquals("Halted", RunResult.Reason.HALTED, result.getReason());
+		assertEquals("Sites", 2, machine.getFusionSites());
+		assertEquals("Steps", 6, result.getSteps());
+		assertEquals("Sum stored", 12, machine.getData(2));
+		assertEquals("Hit rate", 5.0 / 6, machine.getFusionHitRate(), 1e-9);
+	}
+
+	@Test
+	// a step budget that ends inside a fused sequence stops after the instructions it allows
+	public void testFusionStepLimit() {
+		MachineModel machine = machine(fusedProgram(0), Engine.INTERPRETER);
+		RunResult result = machine.run(1);
+		assertEquals("Step limit", RunResult.Reason.STEP_LIMIT, result.getReason());
+		assertEquals("Steps", 1, result.getSteps());
+		assertEquals("After CMPZ", 1, machine.getPC());
+		assertEquals("CMPZ result", 0, machine.getAccum());
+		result = machine.run(3);
+		assertEquals("Steps", 3, result.getSteps());
+		assertEquals("Between ADD and STO", 5, machine.getPC());
+		assertEquals("Sum not stored", 0, machine.getData(2));
+		assertEquals("Sum in accumulator", 12, machine.getAccum());
+		result = machine.run(Long.MAX_VALUE);
+		assertEquals("Steps", 2, result.getSteps());
+		assertEquals("Sum stored", 12, machine.getData(2));
+	}
+
+	@Test
+	// a fault in a later instruction of a fused sequence is reported at that instruction
+	public void testFusionFault() {
+		MachineModel machine = machine(fusedProgram(Memory.DATA_SIZE), Engine.INTERPRETER);
+		RunResult result = machine.run(Long.MAX_VALUE);
+		assertEquals("Fault", RunResult.Reason.FAULT, result.getReason());
+		assertEquals("Data address", Fault.DATA_ADDRESS, result.getFault());
+		assertEquals("At the ADD", 4, result.getPC());
+		assertEquals("Detail", Memory.DATA_SIZE, result.getFaultDetail());
+		assertEquals("CMPZ, JMPZ and LOD ran", 3, result.getSteps());
+		assertEquals("LOD ran", 7, machine.getAccum());
+	}
+
+	@Test
+	// an indirect jump, which can land inside any sequence, turns fusion off
+	public void testFusionIndirectJump() {
+		Instruction[] code = new Instruction[8];
+		for (int i = 0; i < 7; i++) {
+			code[i] = fusedProgram(0).getCode(i);
+		}
+		code[2] = Optimizer.make(Instruction.JUMP, Decoder.INDIRECT, 3); // data 3 holds 7
+		code[7] = Optimizer.make(Instruction.HALT, Decoder.DIRECT, 0);
+		Map<Integer, Integer> data = new java.util.HashMap<>(fusedProgram(0).getData());
+		data.put(3, 7);
+		MachineModel machine = machine(Program.of("indirect", code, data), Engine.INTERPRETER);
+		RunResult result = machine.run(Long.MAX_VALUE);
+		assertEquals("Halted", RunResult.Reason.HALTED, result.getReason());
+		assertEquals("No sites", 0, machine.getFusionSites());
+		assertEquals("No hits", 0.0, machine.getFusionHitRate(), 0);
+		assertEquals("Steps", 6, result.getSteps());
+	}
+
+	@Test
+	// a machine whose run throws fails on its own and the others run on
+	public void testMachineFarmFailure() throws InterruptedException {
+		IllegalStateException thrown = new IllegalStateException("broken");
+		try (MachineFarm farm = new MachineFarm(1000)) {
+			MachineModel broken = new MachineModel(() -> {}) {
+				@Override
+				RunResult runCancellable(long maxSteps) {
+					throw thrown;
+				}
+			};
+			MachineModel loop = new MachineModel(() -> {});
+			loop.setCode(0, new Instruction((byte)0b01010011,0)); // JUMP #0
+			MachineFarm.Machine failing = farm.add(broken);
+			MachineFarm.Machine looping = farm.add(loop);
+			long deadline = System.currentTimeMillis() + 5000;
+			while (failing.getState() == MachineFarm.State.RUNNING && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals("Failed", MachineFarm.State.FAILED, failing.getState());
+			assertSame("Failure", thrown, failing.getFailure());
+			assertEquals("No result", null, failing.getLastResult());
+			long steps = looping.getSteps();
+			while (looping.getSteps() == steps && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals("Still running", MachineFarm.State.RUNNING, looping.getState());
+			looping.pause();
+			failing.resume();
+			assertEquals("Not resumed", MachineFarm.State.FAILED, failing.getState());
+		}
+	}
+
+	@Test
+	// watchpoints fire from the interpreter loop, inside what would be a fused sequence
+	public void testWatchpointsInterpreted() {
+		for (Engine engine : Engine.values()) {
+			MachineModel machine = machine(fusedProgram(0), engine);
+			machine.addWatchpoint(new Watchpoint(1, Watchpoint.Kind.READ, null, null));
+			machine.addWatchpoint(new Watchpoint(2, Watchpoint.Kind.WRITE, null, null));
+			RunResult result = machine.run(Long.MAX_VALUE);
+			assertEquals(engine + " read", RunResult.Reason.WATCHPOINT, result.getReason());
+			assertEquals(engine + " after the LOD", 4, result.getPC());
+			assertEquals(engine + " steps", 3, result.getSteps());
+			assertEquals(engine + " LOD", 3, machine.getWatchEvent().getPC());
+			// the observe loop never builds the superinstructions
+			assertEquals(engine + " interpreted", 2, machine.getFusionSites());
+			result = machine.run(Long.MAX_VALUE);
+			assertEquals(engine + " write", RunResult.Reason.WATCHPOINT, result.getReason());
+			assertEquals(engine + " after the STO", 6, result.getPC());
+			assertEquals(engine + " value", 12, machine.getWatchEvent().getValue());
+			machine.clearWatchpoints();
+			assertEquals(engine + " halted", RunResult.Reason.HALTED, machine.run(Long.MAX_VALUE).getReason());
+		}
+	}
+
+	@Test
+	// a pause right after a quantum was scheduled stops it even if it had not started running
+	public void testMachineFarmPauseBeforeRun() throws InterruptedException {
+		java.util.concurrent.CountDownLatch starting = new java.util.concurrent.CountDownLatch(1);
+		java.util.concurrent.CountDownLatch paused = new java.util.concurrent.CountDownLatch(1);
+		MachineModel loop = new MachineModel(() -> {}) {
+			@Override
+			RunResult runCancellable(long maxSteps) {
+				// the farm has let go of the lock, the run has not begun
+				starting.countDown();
+				try {
+					paused.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return super.runCancellable(maxSteps);
+			}
+		};
+		loop.setCode(0, new Instruction((byte)0b01010011,0)); // JUMP #0
+		try (MachineFarm farm = new MachineFarm(Long.MAX_VALUE)) {
+			MachineFarm.Machine machine = farm.add(loop);
+			starting.await();
+			machine.pause();
+			paused.countDown();
+			long deadline = System.currentTimeMillis() + 5000;
+			while (machine.getLastResult() == null && System.currentTimeMillis() < deadline) {
+				Thread.sleep(1);
+			}
+			assertEquals("Stopped", true, machine.getLastResult() != null);
+			assertEquals("Cancelled", RunResult.Reason.CANCELLED, machine.getLastResult().getReason());
+			assertEquals("Paused", MachineFarm.State.PAUSED, machine.getState());
+		}
+	}
+
+	/**
+	 * Steps the program on BaselineDispatch and on MachineModel.step() and
+	 * checks that both stop at the same pc, with the same exception and
+	 * the same accumulator and data; then that every engine ends there too
+	 */
+	static void assertBaselineRun(String name, Program program, int maxSteps) {
+		MachineModel model = machine(program, Engine.INTERPRETER);
+		Snapshot loaded = model.snapshot();
+		BaselineDispatch baseline = new BaselineDispatch(model.getCode(), model.getDataSize());
+		baseline.reset(loaded);
+		Class<?> want = null;
+		int steps = 0;
+		try {
+			while (!baseline.halted && steps < maxSteps) {
+				baseline.step();
+				steps++;
+			}
+		}
+		catch (RuntimeException e) {
+			want = e.getClass();
+		}
+		Class<?> got = null;
+		try {
+			for (int i = 0; i < steps; i++) {
+				model.step();
+			}
+			if (want != null) model.step();
+		}
+		catch (RuntimeException e) {
+			got = e.getClass();
+		}
+		assertEquals(name + ": exception", want, got);
+		assertEquals(name + ": pc", baseline.pc, model.getPC());
+		assertEquals(name + ": accumulator", baseline.accum, model.getAccum());
+		for (int i = 0; i < model.getDataSize(); i++) {
+			assertEquals(name + ": data " + i, baseline.getDataAt(i), model.getData(i));
+		}
+		for (Engine engine : Engine.values()) {
+			model.restore(loaded);
+			model.setEngine(engine);
+			RunResult result = model.run(maxSteps);
+			assertEquals(name + " " + engine + ": steps", steps, result.getSteps());
+			assertEquals(name + " " + engine + ": fault", want != null, result.getReason() == RunResult.Reason.FAULT);
+			assertEquals(name + " " + engine + ": pc", baseline.pc, result.getPC());
+		}
+	}
+
+	@Test
+	// parity and flag faults happen at the same pc as in the original lambda interpreter
+	public void testFaultsAtBaselinePC() {
+		byte[] faulty = {
+				0b00101010, // ADD # with odd parity
+				0b00001010, // NOT with flags
+				0b00100010, // STO #
+				0b01001101, // AND @
+				0b01100011, // CMPL #
+				0b00010111, // HALT with flags
+		};
+		for (byte opcode : faulty) {
+			Instruction[] code = {new Instruction((byte) 0b00011011, 5), new Instruction((byte) 0b00100001, 1),
+					new Instruction((byte) 0b00101000, 1), new Instruction(opcode, 1),
+					new Instruction((byte) 0b00010001, 0)};
+			assertBaselineRun("Opcode " + Integer.toBinaryString(opcode), Program.of("faulty", code, Map.of()), 100);
+		}
+		java.util.Random random = new java.util.Random(17);
+		for (int n = 0; n < 2000; n++) {
+			Program program = randomProgram(random);
+			Instruction[] code = new Instruction[program.getLength()];
+			for (int i = 0; i < code.length; i++) {
+				code[i] = program.getCode(i);
+			}
+			code[random.nextInt(code.length)] = new Instruction((byte) random.nextInt(0x70), random.nextInt(4));
+			assertBaselineRun("Random " + n, Program.of("random", code, program.getData()), 500);
+		}
+	}
+}
@@ -6,46 +6,74 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
 
 public class Loader {
 	
-	public static String load(MachineModel model, File program) {
-		
-		if (model == null || program == null) return null;
-		ByteBuffer buff = null;
+	/**
+	 * Reads a .pexe file into a Program, which any number of machines
+	 * can then be bound to with MachineModel.load(Program)
+	 * @throws IOException if the file cannot be read
+	 */
+	public static Program read(File program) throws IOException {
+		ByteBuffer buff;
 		try (FileInputStream fStream = new FileInputStream(program);
 				FileChannel fChan = fStream.getChannel()) {
 			long fSize = fChan.size();
 			buff = ByteBuffer.allocate((int) fSize);
 			fChan.read(buff);
 		}
-		catch(FileNotFoundException e) {
-			return("File " + program.getName() + " Not Found");
+		buff.rewind();
+		List<Instruction> code = new ArrayList<>();
+		List<Assembler.DataPair> data = new ArrayList<>();
+		while (buff.hasRemaining()) {
+			byte b = buff.get();
+			if (b < 0) break;
+			Instruction instr = new Instruction(b, 0);
+			if (!Instruction.noArgument(instr)) instr = new Instruction(b, buff.getInt());
+			code.add(instr);
 		}
-		catch(IOException e) {
-			return("Unexpected IO exception in loading " + program.getName());
+		while (buff.hasRemaining()) {
+			data.add(new Assembler.DataPair(buff.getInt(), buff.getInt()));
 		}
+		String name = program.getName();
+		if (name.endsWith(".pexe")) name = name.substring(0, name.length() - 5);
+		return new Program(name, code, data);
+	}
+	
+	/**
+	 * Reads the file and binds the machine to it, see
+	 * MachineModel.load(Program). Unlike the loader before programs
+	 * were read on their own, this clears the machine first: data
+	 * memory is zero apart from the initial data of the program, code
+	 * memory after the program is empty and the program counter and
+	 * accumulator are 0. A program that does not fit throws
+	 * IllegalArgumentException.
+	 * @return "success", or the message for a file that cannot be read
+	 */
+	public static String load(MachineModel model, File program) {
 		
-		if (buff != null) {
-			buff.rewind();
-			int codeIndex = 0;
-			while (buff.hasRemaining()) {
-				byte b = buff.get();
-				if (b < 0) break;
-				Instruction instr = new Instruction(b, 0);
-				if (!Instruction.noArgument(instr)) instr = new Instruction(b, buff.getInt());
-				model.setCode(codeIndex++, instr);
-			}
-			while (buff.hasRemaining()) {
-				model.setData(buff.getInt(), buff.getInt());
-			}
-			return "success";
+		if (model == null || program == null) return null;
+		try {
+			model.load(read(program));
 		}
-		return null; // CHECK
+		catch(IOException e) {
+			return error(program, e);
+		}
+		return "success";
 		
 	}
 	
+	/**
+	 * @return the message load returns when read threw the exception
+	 */
+	static String error(File program, IOException e) {
+		if (e instanceof FileNotFoundException) return "File " + program.getName() + " Not Found";
+		return "Unexpected IO exception in loading " + program.getName();
+	}
+	
 	public static void main(String[] args) {
 			System.out.println("Enter the name of the file without extension: ");
 			try (Scanner keyboard = new Scanner(System.in)) {
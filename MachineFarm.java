@@ -0,0 +1,277 @@
+package project;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many live MachineModels side by side. Execution is sliced into
+ * quanta of a fixed number of steps: a machine runs one quantum with
+ * MachineModel.run and is then queued again behind the others, so a
+ * program stuck in a loop cannot starve the rest. Paused machines and
+ * machines that halted, faulted, were found in an endless loop (see
+ * MachineModel.setLoopCheckInterval) or reached a limit set on their
+ * model are not queued and cost nothing. A machine whose model throws
+ * from run is stopped in state FAILED and the others run on.
+ *
+ * Each quantum runs on a virtual thread when the JVM has them, otherwise
+ * on a pool with one platform thread per processor.
+ */
+public class MachineFarm implements AutoCloseable {
+
+	public enum State {
+		RUNNING, PAUSED, HALTED, FAULTED, NON_TERMINATING, LIMIT_REACHED, KILLED,
+		/** MachineModel.run threw, see Machine.getFailure */
+		FAILED
+	}
+
+	/**
+	 * A machine in the farm
+	 */
+	public class Machine {
+
+		private final MachineModel model;
+		private State state = State.RUNNING;
+		private boolean scheduled; // a quantum is queued or running
+		private long queuedAt;
+		private volatile long steps;
+		private volatile long runNanos;
+		private volatile RunResult lastResult;
+		private volatile RuntimeException failure;
+
+		private Machine(MachineModel model) {
+			this.model = model;
+		}
+
+		/**
+		 * The model must not be used while the machine is running
+		 */
+		public MachineModel getModel() {
+			return model;
+		}
+
+		public synchronized State getState() {
+			return state;
+		}
+
+		/**
+		 * Stops the machine, cancelling the quantum it is running, if any
+		 */
+		public synchronized void pause() {
+			if (state != State.RUNNING) return;
+			state = State.PAUSED;
+			if (scheduled) model.cancel();
+		}
+
+		public synchronized void resume() {
+			if (state != State.PAUSED) return;
+			state = State.RUNNING;
+			schedule();
+		}
+
+		/**
+		 * Stops the machine for good and removes it from the farm
+		 */
+		public synchronized void kill() {
+			if (scheduled) model.cancel();
+			state = State.KILLED;
+			machines.remove(this);
+		}
+
+		/**
+		 * @return the instructions executed since the machine was added
+		 */
+		public long getSteps() {
+			return steps;
+		}
+
+		/**
+		 * @return the instructions executed per second of the time the
+		 * machine was running a quantum
+		 */
+		public double getStepsPerSecond() {
+			long nanos = runNanos;
+			return nanos == 0 ? 0 : steps * 1e9 / nanos;
+		}
+
+		/**
+		 * @return the result of the last quantum, null before the first
+		 */
+		public RunResult getLastResult() {
+			return lastResult;
+		}
+
+		/**
+		 * @return what MachineModel.run threw if the machine FAILED, else null
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		// called with the lock held
+		private void schedule() {
+			if (scheduled) return;
+			scheduled = true;
+			queuedAt = System.nanoTime();
+			queued.incrementAndGet();
+			try {
+				executor.execute(this::runQuantum);
+			} catch (RejectedExecutionException e) {
+				// the farm was closed
+				queued.decrementAndGet();
+				scheduled = false;
+			}
+		}
+
+		private void runQuantum() {
+			queued.decrementAndGet();
+			synchronized (this) {
+				latencyNanos.addAndGet(System.nanoTime() - queuedAt);
+				quanta.incrementAndGet();
+				if (state != State.RUNNING) {
+					scheduled = false;
+					return;
+				}
+				// from here on pause and kill cancel the run, also before it starts
+				model.clearCancel();
+			}
+			long start = System.nanoTime();
+			RunResult result = null;
+			try {
+				result = model.runCancellable(quantum);
+				steps += result.getSteps();
+				lastResult = result;
+			}
+			catch (RuntimeException e) {
+				failure = e;
+			}
+			finally {
+				runNanos += System.nanoTime() - start;
+				finished(result);
+			}
+		}
+
+		/**
+		 * Moves the machine on after a quantum
+		 * @param result null if run threw
+		 */
+		private synchronized void finished(RunResult result) {
+			scheduled = false;
+			if (state != State.RUNNING) return;
+			if (result == null) {
+				state = State.FAILED;
+				return;
+			}
+			switch (result.getReason()) {
+			case STEP_LIMIT:
+			case CANCELLED:
+				schedule();
+				break;
+			case HALTED:
+				state = State.HALTED;
+				break;
+			case FAULT:
+				state = State.FAULTED;
+				break;
+			case NON_TERMINATING:
+				state = State.NON_TERMINATING;
+				break;
+			case BREAKPOINT:
+			case WATCHPOINT:
+				// resume() goes on from the breakpoint
+				state = State.PAUSED;
+				break;
+			default:
+				state = State.LIMIT_REACHED;
+			}
+		}
+
+		public String toString() {
+			return "Machine [" + getState() + ", steps " + steps + ", pc " + model.getPC() + "]";
+		}
+
+	}
+
+	private final long quantum;
+	private final ExecutorService executor = newExecutor();
+	private final List<Machine> machines = new CopyOnWriteArrayList<>();
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicLong latencyNanos = new AtomicLong();
+	private final AtomicLong quanta = new AtomicLong();
+
+	/**
+	 * @param quantum the most instructions a machine executes before
+	 * the other machines get their turn
+	 */
+	public MachineFarm(long quantum) {
+		if (quantum < 1) throw new IllegalArgumentException("Quantum must be at least 1");
+		this.quantum = quantum;
+	}
+
+	/**
+	 * Virtual thread per quantum if Executors.newVirtualThreadPerTaskExecutor
+	 * exists, looked up reflectively so the farm also runs on JVMs without it
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+				Thread t = new Thread(r, "MachineFarm");
+				t.setDaemon(true);
+				return t;
+			});
+		}
+	}
+
+	/**
+	 * Adds a machine and starts running it from its current program counter
+	 */
+	public Machine add(MachineModel model) {
+		Machine machine = new Machine(model);
+		machines.add(machine);
+		synchronized (machine) {
+			machine.schedule();
+		}
+		return machine;
+	}
+
+	/**
+	 * @return the machines that were added and not killed
+	 */
+	public List<Machine> getMachines() {
+		return new ArrayList<>(machines);
+	}
+
+	/**
+	 * @return the number of quanta waiting to start
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the average time from queueing a quantum to its start
+	 */
+	public long getAverageLatencyNanos() {
+		long n = quanta.get();
+		return n == 0 ? 0 : latencyNanos.get() / n;
+	}
+
+	public long getQuantum() {
+		return quantum;
+	}
+
+	/**
+	 * Stops scheduling; quanta already running complete
+	 */
+	public void close() {
+		executor.shutdownNow();
+	}
+
+}
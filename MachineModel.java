@@ -1,6 +1,10 @@
 package project;
 
+import static project.Decoder.*;
 import static project.Instruction.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -10,172 +14,109 @@ public class MachineModel {
 	
 	public final Map<Integer, Consumer<Instruction>> ACTION = new TreeMap<>();
 	private CPU cpu = new CPU();
-	private Memory memory = new Memory();
+	private final Memory memory;
+	private final int dataSize;
+	private final int codeSize;
 	private HaltCallback callBack;
+	private CompiledCode compiled; // whole program, dropped when code changes
+	private boolean compileFailed; // compile() threw for this program, see runCompiled
+	private Tiering tiering; // blocks for runTiered, dropped when code changes
+	private Fusion fusion; // superinstructions for runInterpreted, dropped when code changes
+	private Verifier verifier; // result of verify(), dropped when code changes
+	private Program program; // bound by load(Program), dropped when code changes
+	private int tierThreshold = 100;
+	private Engine engine = Engine.INTERPRETER;
+	private boolean haltReached; // set by the engine loops when HALT executes
+	private Fault fault = Fault.NONE; // fault of the last step() or run()
+	private int faultPC;
+	private int faultDetail;
+	private boolean faultCodeMode;
+	private TraceRecorder trace; // null unless recording
+	private Profiler profiler; // null unless profiling
+	private UndoLog undo; // null unless stepping back is possible
+	private boolean observed; // trace, profiler or undo log set, see observeOne
+	private Watchpoint[] watchpoints = new Watchpoint[0];
+	private boolean watchStep; // observeOne or interpret is executing instructions
+	private WatchEvent watchEvent; // the watchpoint the last step or run stopped at
+	private int resumePC = -1; // a breakpoint here executes its instruction once, see run
+	private int sampleInterval; // steps between PC publications, 0 for none
+	private int chunkSeed = 1;
+	private long sampleLeft; // steps to the next PC publication
+	private volatile int publishedPC = -1; // read by SamplingProfiler
+	private int loopInterval; // steps between loop checks, 0 for none
+	private RunResult.Reason stopped; // set by runChunked when a check stops the run
+	private long timeLimit = -1; // nanoseconds per run, -1 for none
+	private long writeLimit = -1; // data writes per run, -1 for none
+	private int addressLimit = -1; // distinct data addresses per run, -1 for none
+	private volatile boolean cancelled;
+	private static final int CHECK_INTERVAL = 1 << 16; // most steps between cancel and time checks
+	// Brent's cycle detection over the states at loop check boundaries
+	private long loopChunkLeft;
+	private long loopPower;
+	private long loopLength;
+	private int loopPC;
+	private int loopAccum;
+	private long loopHash;
+	private int[][] loopData;
+	// state the last runChunked ended in, to continue detection in the next run
+	private boolean loopValid;
+	private int loopEndPC;
+	private int loopEndAccum;
+	private long loopEndHash;
 	
 	public MachineModel(HaltCallback callBack) {
+		this(callBack, new Memory());
+	}
+	
+	/**
+	 * A machine with memory sizes of its own
+	 * @param dataSize the words of data memory
+	 * @param codeSize the instructions of code memory
+	 * @param pageSize 0 for data memory in one array like the default
+	 * machine, otherwise the words per page of data memory, a power of
+	 * two; pages are only allocated when they are first written
+	 */
+	public MachineModel(HaltCallback callBack, int dataSize, int codeSize, int pageSize) {
+		this(callBack, pageSize == 0 ? new Memory(dataSize, codeSize, true)
+				: new PagedMemory(dataSize, codeSize, pageSize));
+	}
+	
+	/**
+	 * A machine whose data memory is the file, mapped into memory outside
+	 * the Java heap: other processes see the data while the machine runs
+	 * and an existing file keeps its data from earlier runs
+	 * @param dataSize the words of data memory, the file must be empty or
+	 * hold exactly that many words
+	 * @param codeSize the instructions of code memory
+	 */
+	public MachineModel(HaltCallback callBack, Path file, int dataSize, int codeSize) throws IOException {
+		this(callBack, new MappedMemory(file, dataSize, codeSize));
+	}
+	
+	private MachineModel(HaltCallback callBack, Memory memory) {
 		this.callBack = callBack;
+		this.memory = memory;
+		dataSize = memory.getDataSize();
+		codeSize = memory.getCodeSize();
 		
-		ACTION.put(OPCODES.get("NOP"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags != 0) {
-				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("NOT"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags != 0) {
-				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			if (cpu.accum == 0) cpu.accum = 1;
-			else cpu.accum = 0;
-			cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("HALT"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags != 0) {
-				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			halt();
-		});
-		ACTION.put(OPCODES.get("LOD"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags == 0) cpu.accum = memory.getData(instr.arg);
-			else if (flags == 2) cpu.accum = instr.arg;
-			else if (flags == 4) cpu.accum = memory.getData(memory.getData(instr.arg));
-			else {
-				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("STO"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags == 0) setData(instr.arg, cpu.accum);
-			else if (flags == 4) setData(memory.getData(instr.arg),cpu.accum);
-			else {
-				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("ADD"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if (flags == 0) cpu.accum += memory.getData(instr.arg);
-			else if (flags == 2) cpu.accum += instr.arg;
-			else if (flags == 4) cpu.accum += memory.getData(memory.getData(instr.arg));
-			else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			 }
-			 cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("SUB"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if (flags == 0) cpu.accum -= memory.getData(instr.arg);
-			else if (flags == 2) cpu.accum -= instr.arg;
-			else if (flags == 4) cpu.accum -= memory.getData(memory.getData(instr.arg));
-			else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			 }
-			 cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("MUL"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if (flags == 0) cpu.accum *= memory.getData(instr.arg);
-			else if (flags == 2) cpu.accum *= instr.arg;
-			else if (flags == 4) cpu.accum *= memory.getData(memory.getData(instr.arg));
-			else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			 }
-			 cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("DIV"), instr -> {
-			int flags = instr.opcode & 6; // remove parity bit that will have been verified
-			if (flags == 0) {
-				if (memory.getData(instr.arg) == 0) throw new DivideByZeroException("Cannot divide by zero.");
-				else cpu.accum /= memory.getData(instr.arg);
-			}
-			else if (flags == 2) {
-				if (instr.arg == 0) throw new DivideByZeroException("Cannot divide by zero.");
-				else cpu.accum /= instr.arg;
-			}
-			else if (flags == 4) {
-				if (memory.getData(memory.getData(instr.arg)) == 0) throw new DivideByZeroException("Cannot divide by zero.");
-				else cpu.accum /= memory.getData(memory.getData(instr.arg));
-			}
-			else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			 }
-			 cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("AND"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags == 0) {
-				if (cpu.accum != 0 && memory.getData(instr.arg) != 0) cpu.accum = 1;
-				else cpu.accum = 0;
-			}
-			else if (flags == 2) {
-				if (cpu.accum != 0 && instr.arg != 0) cpu.accum = 1;
-				else cpu.accum = 0;
-			}
-			else {
-				String fString = "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("JUMP"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags == 0) cpu.pc += instr.arg;
-			else if (flags == 2) cpu.pc = instr.arg;
-			else if (flags == 4) cpu.pc += memory.getData(instr.arg);
-			else cpu.pc = memory.getData(instr.arg);
-		});
-		ACTION.put(OPCODES.get("JMPZ"), instr -> {
-			if (cpu.accum == 0) {
-				int flags = instr.opcode & 6;
-				if (flags == 0) cpu.pc += instr.arg;
-				else if (flags == 2) cpu.pc = instr.arg;
-				else if (flags == 4) cpu.pc += memory.getData(instr.arg);
-				else cpu.pc = memory.getData(instr.arg);
-			}
-			else cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("CMPL"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags != 0) {
-				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			if (memory.getData(instr.arg) < 0) cpu.accum = 1;
-			else cpu.accum = 0;
-			cpu.pc++;
-		});
-		ACTION.put(OPCODES.get("CMPZ"), instr -> {
-			int flags = instr.opcode & 6;
-			if (flags != 0) {
-				String fString =  "(" + (flags%8 > 3?"1":"0") + (flags%4 > 1?"1":"0") + ")";
-				throw new IllegalInstructionException("Illegal flags for this instruction: " + fString);
-			}
-			if (memory.getData(instr.arg) == 0) cpu.accum = 1;
-			else cpu.accum = 0;
-			cpu.pc++;
-		});
+		// ACTION is kept as a compatibility view of the interpreter core,
+		// every entry just forwards the instruction to execute
+		for (int op : OPCODES.values()) {
+			ACTION.put(op, instr -> {
+				int id = Decoder.operation(instr.opcode);
+				Fault f = execute(id, instr.arg);
+				if (f != Fault.NONE) throw exception(f, cpu.pc, faultDetail);
+				if (id == HALT << 2) halt();
+			});
+		}
 		
 	}//end of constructor
 
-	private class CPU {
+	// package visible so code generated by BytecodeCompiler can use it
+	static class CPU {
 		
-		private int accum; //accumulator
-		private int pc; //program counter
+		int accum; //accumulator
+		int pc; //program counter
 		
 	}
 	
@@ -191,8 +132,13 @@ public class MachineModel {
 		return memory.getData(index);
 	}
 	
+	/**
+	 * Writes a data address from outside the program; empties the undo
+	 * log, which could not step back over the write
+	 */
 	public void setData(int i, int j) {
 		memory.setData(i, j);
+		changedOutside();
 	}
 	public int getPC() {
 		return cpu.pc;
@@ -200,11 +146,20 @@ public class MachineModel {
 	public int getAccum() {
 		return cpu.accum;
 	}
+	/**
+	 * Empties the undo log, like setData
+	 */
 	public void setAccum(int i) {
 		cpu.accum = i;
+		changedOutside();
 	}
+	/**
+	 * Empties the undo log, like setData
+	 */
 	public void setPC(int i) {
 		cpu.pc = i;
+		resumePC = -1;
+		changedOutside();
 	}
 	
 	public Instruction getCode(int index) {
@@ -213,8 +168,20 @@ public class MachineModel {
 	
 	public void setCode(int i, Instruction j) {
 		memory.setCode(i, j);
+		compiled = null;
+		compileFailed = false;
+		loopValid = false;
+		tiering = null;
+		fusion = null;
+		verifier = null;
+		program = null;
+		if (trace != null) trace.start(snapshot());
 	}
 	
+	/**
+	 * @return a copy of code memory; code memory keeps opcodes and
+	 * arguments in arrays, so the Instruction objects are made here
+	 */
 	public Instruction[] getCode() {
 		return memory.getCode();
 	}
@@ -223,6 +190,22 @@ public class MachineModel {
 		return memory.getCode(min, max);
 	}
 	
+	/**
+	 * @return the words of data memory, Memory.DATA_SIZE unless the
+	 * machine was made with sizes of its own
+	 */
+	public int getDataSize() {
+		return dataSize;
+	}
+	
+	/**
+	 * @return the instructions of code memory, Memory.CODE_SIZE unless
+	 * the machine was made with sizes of its own
+	 */
+	public int getCodeSize() {
+		return codeSize;
+	}
+	
 	public int getProgramSize() {
 		return memory.getProgramSize();
 	}
@@ -231,32 +214,1322 @@ public class MachineModel {
 		return memory.getChangedDataIndex();
 	}
 	
+	/**
+	 * Makes sure data memory mapped from a file is written to the file;
+	 * does nothing for other machines
+	 */
+	public void forceData() {
+		memory.force();
+	}
+	
+	/**
+	 * Turns the dirty set of data memory on or off. While it is on every
+	 * write adds its address to the set, and changes to all of data
+	 * memory (clear, restore) add every address, so a view or checkpoint
+	 * only needs to look at what getDirtyData returns.
+	 */
+	public void setDirtyTracking(boolean on) {
+		memory.setTracking(on);
+	}
+	
+	/**
+	 * @return the data addresses written since the last clearDirty, in the
+	 * order of their first write, or every address in order once all of
+	 * data memory changed; empty unless dirty tracking is on
+	 */
+	public int[] getDirtyData() {
+		return memory.tracking ? memory.getDirtyData() : new int[0];
+	}
+	
+	/**
+	 * @return the numbers of the pages of getDirtyPageSize() words that
+	 * were written since the last clearDirty
+	 */
+	public int[] getDirtyPages() {
+		return memory.tracking ? memory.getDirtyPages() : new int[0];
+	}
+	
+	public int getDirtyPageSize() {
+		return memory.getDirtyPageSize();
+	}
+	
+	/**
+	 * Empties the dirty set, in time proportional to its size
+	 */
+	public void clearDirty() {
+		if (memory.tracking) memory.clearDirty();
+	}
+	
 	public void setProgramSize(int i) {
 		memory.setProgramSize(i);
 	}
 
+	/**
+	 * @return a copy of the accumulator, program counter, data memory
+	 * and code memory, see restore
+	 */
+	public Snapshot snapshot() {
+		return memory.snapshot(cpu.accum, cpu.pc);
+	}
+	
+	/**
+	 * An incremental snapshot: only the pages of data memory written since
+	 * the previous checkpoint are copied, the others are shared with it.
+	 * Needs dirty tracking, which is turned on by the first call.
+	 * @param previous the last snapshot or checkpoint of this machine,
+	 * taken with dirty tracking on and no clearDirty since; null for a
+	 * full snapshot that starts a series of checkpoints
+	 */
+	public Snapshot checkpoint(Snapshot previous) {
+		if (previous == null || !memory.tracking) {
+			memory.setTracking(true);
+			memory.clearDirty();
+			return snapshot();
+		}
+		if (!memory.fits(previous)) throw new IllegalArgumentException("The snapshot is of a machine with other memory sizes");
+		return memory.checkpoint(previous, cpu.accum, cpu.pc);
+	}
+	
+	/**
+	 * Puts the machine back in the state of the snapshot. Only data memory
+	 * is copied; code memory shares the arrays of the snapshot until it
+	 * is changed. If the code memory still holds the program of the
+	 * snapshot it is left alone, so compiled code and the other per
+	 * program data are kept.
+	 * @param saved a snapshot of this or another MachineModel
+	 */
+	public void restore(Snapshot saved) {
+		if (!memory.fits(saved)) throw new IllegalArgumentException("The snapshot is of a machine with other memory");
+		memory.restoreData(saved);
+		if (!memory.sameCode(saved)) {
+			memory.restoreCode(saved);
+			compiled = null;
+			compileFailed = false;
+			tiering = null;
+			fusion = null;
+			verifier = null;
+			program = null;
+		}
+		cpu.accum = saved.accum;
+		cpu.pc = saved.pc;
+		resumePC = -1;
+		changedOutside();
+	}
+	
 	public void halt() {
 		callBack.halt();
 	}
 	
+	/**
+	 * Binds the machine to the program: clears it, makes the code of the
+	 * program its code memory and writes the initial data. The code is
+	 * shared with the program, not copied, until setCode or a breakpoint
+	 * changes it, so binding many machines to one program costs little
+	 * more than clearing their data memory. The program is verified,
+	 * see verify(), once for all the machines with the same memory
+	 * sizes. Removes the breakpoints. A program that does not fit is
+	 * rejected before anything changes, so the machine keeps the
+	 * program and state it had.
+	 * @throws IllegalArgumentException if the program does not fit in
+	 * code memory
+	 * @throws ArrayIndexOutOfBoundsException if an address of the initial
+	 * data is outside data memory
+	 */
+	public void load(Program program) {
+		Program.Code code = program.code(codeSize);
+		for (int i = 0; i < program.getDataCount(); i++) {
+			if (badAddress(program.getDataAddress(i))) {
+				throw new ArrayIndexOutOfBoundsException("Initial data address " + program.getDataAddress(i)
+						+ " is outside data memory 0.." + (dataSize - 1));
+			}
+		}
+		memory.clearData();
+		memory.shareCode(code, program.getLength() - 1);
+		compiled = null;
+		compileFailed = false;
+		loopValid = false;
+		tiering = null;
+		fusion = null;
+		for (int i = 0; i < program.getDataCount(); i++) {
+			memory.setData(program.getDataAddress(i), program.getDataValue(i));
+		}
+		cpu.accum = 0;
+		cpu.pc = 0;
+		resumePC = -1;
+		changedOutside();
+		verifier = code.verifier(memory);
+		this.program = program;
+	}
+	
+	/**
+	 * @return the program of the last load(Program), null if code memory
+	 * changed since
+	 */
+	public Program getProgram() {
+		return program;
+	}
+	
 	public void clear() {
 		memory.clearData();
 		memory.clearCode();
+		compiled = null;
+		compileFailed = false;
+		loopValid = false;
+		tiering = null;
+		fusion = null;
+		verifier = null;
+		program = null;
 		cpu.accum = 0;
 		cpu.pc = 0;
+		resumePC = -1;
+		changedOutside();
 	}
 	
-	public void step() {
+	/**
+	 * Sets or removes a breakpoint. run() stops before the instruction
+	 * at a breakpoint, with the reason BREAKPOINT; the next run() from
+	 * there executes it and goes on. The breakpoint replaces the
+	 * predecoded operation in code memory, so the engines find it with
+	 * the dispatch they do anyway and never look breakpoints up;
+	 * changing one only means the compiled code is made again.
+	 * step() ignores breakpoints. Breakpoints are kept when code
+	 * memory is changed and removed by clear().
+	 */
+	public void setBreakpoint(int pc, boolean on) {
+		if (pc < 0 || pc >= codeSize) throw new IllegalArgumentException("Code address " + pc + " is out of range");
+		if (memory.isBreakpoint(pc) == on) return;
+		memory.setBreakpoint(pc, on);
+		compiled = null;
+		compileFailed = false;
+		tiering = null;
+		fusion = null;
+	}
+	
+	public boolean isBreakpoint(int pc) {
+		return pc >= 0 && pc < codeSize && memory.isBreakpoint(pc);
+	}
+	
+	public void clearBreakpoints() {
+		for (int pc = 0; pc < codeSize; pc++) {
+			setBreakpoint(pc, false);
+		}
+	}
+	
+	/**
+	 * Runs until the instruction at target is next, like run() with a
+	 * breakpoint at target, which is taken away again afterwards
+	 * @return the result of run(); the reason is BREAKPOINT if target
+	 * was reached
+	 */
+	public RunResult runTo(int target, long maxSteps) {
+		boolean set = isBreakpoint(target);
+		if (!set) setBreakpoint(target, true);
 		try {
-			Instruction instr = getCode(cpu.pc);
-			Instruction.checkParity(instr);
-			ACTION.get(instr.opcode/8).accept(instr);
+			return run(maxSteps);
+		}
+		finally {
+			if (!set) setBreakpoint(target, false);
+		}
+	}
+	
+	/**
+	 * Checks the program now in code memory, see Verifier. A verified
+	 * program runs on the interpreter's leaner path until code memory
+	 * is changed through setCode, clear or restore.
+	 * @return the problems found and the instructions still checked
+	 * at run time
+	 */
+	public Verifier verify() {
+		verifier = new Verifier(memory);
+		return verifier;
+	}
+	
+	/**
+	 * @return the result of the last verify(), null if code memory
+	 * changed since
+	 */
+	public Verifier getVerifier() {
+		return verifier;
+	}
+	
+	/**
+	 * Interpreter core: executes one predecoded instruction, dispatching
+	 * on its dense operation id (see Decoder). Every data address is
+	 * checked before it is used, so no fault ever throws: the fault is
+	 * returned, with its detail value in faultDetail, and the machine is
+	 * left as it was before the instruction.
+	 * @param op the operation id of the instruction
+	 * @param arg the argument of the instruction
+	 * @return the fault the instruction caused, Fault.NONE if none
+	 */
+	private Fault execute(int op, int arg) {
+		int address;
+		switch (op) {
+		case NOP << 2:
+			cpu.pc++;
+			break;
+		case NOT << 2:
+			if (cpu.accum == 0) cpu.accum = 1;
+			else cpu.accum = 0;
+			cpu.pc++;
+			break;
+		case HALT << 2:
+			break;
+		case LOD << 2 | DIRECT:
+			if (badAddress(arg)) return dataFault(arg);
+			cpu.accum = memory.getData(arg);
+			cpu.pc++;
+			break;
+		case LOD << 2 | IMMEDIATE:
+			cpu.accum = arg;
+			cpu.pc++;
+			break;
+		case LOD << 2 | INDIRECT:
+			address = indirect(arg);
+			if (address < 0) return Fault.DATA_ADDRESS;
+			cpu.accum = memory.getData(address);
+			cpu.pc++;
+			break;
+		case STO << 2 | DIRECT:
+			if (badAddress(arg)) return dataFault(arg);
+			memory.setData(arg, cpu.accum);
+			cpu.pc++;
+			break;
+		case STO << 2 | INDIRECT:
+			address = indirect(arg);
+			if (address < 0) return Fault.DATA_ADDRESS;
+			memory.setData(address, cpu.accum);
+			cpu.pc++;
+			break;
+		case ADD << 2 | DIRECT:
+			if (badAddress(arg)) return dataFault(arg);
+			cpu.accum += memory.getData(arg);
+			cpu.pc++;
+			break;
+		case ADD << 2 | IMMEDIATE:
+			cpu.accum += arg;
+			cpu.pc++;
+			break;
+		case ADD << 2 | INDIRECT:
+			address = indirect(arg);
+			if (address < 0) return Fault.DATA_ADDRESS;
+			cpu.accum += memory.getData(address);
+			cpu.pc++;
+			break;
+		case SUB << 2 | DIRECT:
+			if (badAddress(arg)) return dataFault(arg);
+			cpu.accum -= memory.getData(arg);
+			cpu.pc++;
+			break;
+		case SUB << 2 | IMMEDIATE:
+			cpu.accum -= arg;
+			cpu.pc++;
+			break;
+		case SUB << 2 | INDIRECT:
+			address = indirect(arg);
+			if (address < 0) return Fault.DATA_ADDRESS;
+			cpu.accum -= memory.getData(address);
+			cpu.pc++;
+			break;
+		case MUL << 2 | DIRECT:
+			if (badAddress(arg)) return dataFault(arg);
+			cpu.accum *= memory.getData(arg);
+			cpu.pc++;
+			break;
+		case MUL << 2 | IMMEDIATE:
+			cpu.accum *= arg;
+			cpu.pc++;
+			break;
+		case MUL << 2 | INDIRECT:
+			address = indirect(arg);
+			if (address < 0) return Fault.DATA_ADDRESS;
+			cpu.accum *= memory.getData(address);
+			cpu.pc++;
+			break;
+		case DIV << 2 | DIRECT:
+			if (badAddress(arg)) return dataFault(arg);
+			return divide(memory.getData(arg), arg);
+		case DIV << 2 | IMMEDIATE:
+			return divide(arg, arg);
+		case DIV << 2 | INDIRECT:
+			address = indirect(arg);
+			if (address < 0) return Fault.DATA_ADDRESS;
+			return divide(memory.getData(address), arg);
+		case AND << 2 | DIRECT:
+			if (cpu.accum != 0) {
+				if (badAddress(arg)) return dataFault(arg);
+				if (memory.getData(arg) != 0) cpu.accum = 1;
+				else cpu.accum = 0;
+			}
+			cpu.pc++;
+			break;
+		case AND << 2 | IMMEDIATE:
+			if (cpu.accum != 0 && arg != 0) cpu.accum = 1;
+			else cpu.accum = 0;
+			cpu.pc++;
+			break;
+		case JUMP << 2 | DIRECT:
+			cpu.pc += arg;
+			break;
+		case JUMP << 2 | IMMEDIATE:
+			cpu.pc = arg;
+			break;
+		case JUMP << 2 | INDIRECT:
+			if (badAddress(arg)) return dataFault(arg);
+			cpu.pc += memory.getData(arg);
+			break;
+		case JUMP << 2 | SPECIAL:
+			if (badAddress(arg)) return dataFault(arg);
+			cpu.pc = memory.getData(arg);
+			break;
+		case JMPZ << 2 | DIRECT:
+			if (cpu.accum == 0) cpu.pc += arg;
+			else cpu.pc++;
+			break;
+		case JMPZ << 2 | IMMEDIATE:
+			if (cpu.accum == 0) cpu.pc = arg;
+			else cpu.pc++;
+			break;
+		case JMPZ << 2 | INDIRECT:
+			if (cpu.accum == 0) {
+				if (badAddress(arg)) return dataFault(arg);
+				cpu.pc += memory.getData(arg);
+			}
+			else cpu.pc++;
+			break;
+		case JMPZ << 2 | SPECIAL:
+			if (cpu.accum == 0) {
+				if (badAddress(arg)) return dataFault(arg);
+				cpu.pc = memory.getData(arg);
+			}
+			else cpu.pc++;
+			break;
+		case CMPL << 2:
+			if (badAddress(arg)) return dataFault(arg);
+			if (memory.getData(arg) < 0) cpu.accum = 1;
+			else cpu.accum = 0;
+			cpu.pc++;
+			break;
+		case CMPZ << 2:
+			if (badAddress(arg)) return dataFault(arg);
+			if (memory.getData(arg) == 0) cpu.accum = 1;
+			else cpu.accum = 0;
+			cpu.pc++;
+			break;
+		case EMPTY:
+			faultDetail = cpu.pc;
+			return Fault.NO_INSTRUCTION;
+		case BAD_PARITY:
+			faultDetail = arg;
+			return Fault.PARITY;
+		case BAD_OPCODE:
+			faultDetail = arg;
+			return Fault.ILLEGAL_OPCODE;
+		default:
+			faultDetail = (op - BAD_FLAGS) << 1;
+			return Fault.ILLEGAL_FLAGS;
 		}
-		catch(Exception e) {
+		return Fault.NONE;
+	}
+	
+	private Fault divide(int divisor, int arg) {
+		if (divisor == 0) {
+			faultDetail = arg;
+			return Fault.DIVIDE_BY_ZERO;
+		}
+		cpu.accum /= divisor;
+		cpu.pc++;
+		return Fault.NONE;
+	}
+	
+	/**
+	 * execute() for a verified program: the direct data addresses and
+	 * constant jump targets are known to be in range, so the common
+	 * instructions skip the checks. The others go to execute().
+	 */
+	private Fault executeVerified(int op, int arg) {
+		switch (op) {
+		case LOD << 2 | DIRECT:
+			cpu.accum = memory.getData(arg);
+			break;
+		case LOD << 2 | IMMEDIATE:
+			cpu.accum = arg;
+			break;
+		case STO << 2 | DIRECT:
+			memory.setData(arg, cpu.accum);
+			break;
+		case ADD << 2 | DIRECT:
+			cpu.accum += memory.getData(arg);
+			break;
+		case ADD << 2 | IMMEDIATE:
+			cpu.accum += arg;
+			break;
+		case SUB << 2 | DIRECT:
+			cpu.accum -= memory.getData(arg);
+			break;
+		case SUB << 2 | IMMEDIATE:
+			cpu.accum -= arg;
+			break;
+		case MUL << 2 | DIRECT:
+			cpu.accum *= memory.getData(arg);
+			break;
+		case MUL << 2 | IMMEDIATE:
+			cpu.accum *= arg;
+			break;
+		case CMPL << 2:
+			cpu.accum = memory.getData(arg) < 0 ? 1 : 0;
+			break;
+		case CMPZ << 2:
+			cpu.accum = memory.getData(arg) == 0 ? 1 : 0;
+			break;
+		case JUMP << 2 | DIRECT:
+			cpu.pc += arg;
+			return Fault.NONE;
+		case JUMP << 2 | IMMEDIATE:
+			cpu.pc = arg;
+			return Fault.NONE;
+		case JMPZ << 2 | DIRECT:
+			if (cpu.accum == 0) cpu.pc += arg;
+			else cpu.pc++;
+			return Fault.NONE;
+		case JMPZ << 2 | IMMEDIATE:
+			if (cpu.accum == 0) cpu.pc = arg;
+			else cpu.pc++;
+			return Fault.NONE;
+		default:
+			return execute(op, arg);
+		}
+		cpu.pc++;
+		return Fault.NONE;
+	}
+	
+	private boolean badAddress(int address) {
+		return address < 0 || address >= dataSize;
+	}
+	
+	private Fault dataFault(int address) {
+		faultDetail = address;
+		return Fault.DATA_ADDRESS;
+	}
+	
+	/**
+	 * Resolves an indirect operand
+	 * @param arg the data address holding the operand address
+	 * @return the operand address, or -1 with the bad address in
+	 * faultDetail if arg or the address stored there is out of range
+	 */
+	private int indirect(int arg) {
+		if (badAddress(arg)) {
+			faultDetail = arg;
+			return -1;
+		}
+		int address = memory.getData(arg);
+		if (badAddress(address)) {
+			faultDetail = address;
+			return -1;
+		}
+		return address;
+	}
+	
+	/**
+	 * Executes the instruction at the program counter without
+	 * calling the HaltCallback
+	 * @return true if the instruction was HALT
+	 */
+	private boolean interpretOne() {
+		int pc = cpu.pc;
+		if (pc < 0 || pc >= codeSize) return fault(Fault.CODE_ADDRESS, pc);
+		int op = memory.getOp(pc);
+		if (op == BREAK) {
+			if (pc != resumePC) return fault(Fault.BREAKPOINT, pc);
+			resumePC = -1;
+			op = memory.getCodeOp(pc);
+		}
+		Fault f = execute(op, memory.getArg(pc));
+		if (f != Fault.NONE) return fault(f, faultDetail);
+		return op == HALT << 2;
+	}
+	
+	private RuntimeException exception(Fault f, int pc, int detail) {
+		return f.toException(pc, detail, f == Fault.CODE_ADDRESS ? codeSize : dataSize);
+	}
+	
+	/**
+	 * Records a fault of the instruction at the program counter
+	 * @return true, so the caller can stop
+	 */
+	private boolean fault(Fault f, int detail) {
+		fault = f;
+		faultPC = cpu.pc;
+		faultDetail = detail;
+		return true;
+	}
+	
+	/**
+	 * Executes the instruction at the program counter and calls the
+	 * HaltCallback if it was HALT or faulted. A fault is then thrown as
+	 * the exception for it, unless fault code mode is on.
+	 */
+	public void step() {
+		fault = Fault.NONE;
+		watchEvent = null;
+		resumePC = cpu.pc;
+		boolean stop = observed || watchpoints.length > 0 ? observeOne() : interpretOne();
+		resumePC = -1;
+		if (stop) {
 			halt();
-			throw e;
+			if (fault != Fault.NONE && !faultCodeMode) throw exception(fault, faultPC, faultDetail);
 		}
 	}
 	
+	/**
+	 * In fault code mode step() does not throw when an instruction faults;
+	 * the fault is only recorded, see getFault. run() never throws.
+	 * @param on true to record faults without throwing
+	 */
+	public void setFaultCodeMode(boolean on) {
+		faultCodeMode = on;
+	}
+	
+	public boolean isFaultCodeMode() {
+		return faultCodeMode;
+	}
+	
+	/**
+	 * @return the fault of the instruction the last step() or run()
+	 * stopped at, Fault.NONE if it did not stop at a fault
+	 */
+	public Fault getFault() {
+		return fault;
+	}
+	
+	/**
+	 * @return the code address of the instruction that faulted
+	 */
+	public int getFaultPC() {
+		return faultPC;
+	}
+	
+	/**
+	 * @return the detail value of the fault, see Fault
+	 */
+	public int getFaultDetail() {
+		return faultDetail;
+	}
+	
+	/**
+	 * Starts recording every executed instruction, see TraceRecorder.
+	 * While a recorder is set run() executes one instruction at a time
+	 * whatever the engine, so every step is seen. setData, setAccum,
+	 * setPC, setCode, restore, load, clear and rewind start the recording
+	 * over from the state they leave, since they are not steps.
+	 * @param recorder the recorder, null to stop recording
+	 */
+	public void setTraceRecorder(TraceRecorder recorder) {
+		if (recorder != null) recorder.start(snapshot());
+		trace = recorder;
+		updateObserved();
+	}
+	
+	public TraceRecorder getTraceRecorder() {
+		return trace;
+	}
+	
+	/**
+	 * Forgets the history in the undo log and starts the trace over from
+	 * the current state, after the machine was changed other than by
+	 * executing instructions, which neither could replay
+	 */
+	private void changedOutside() {
+		if (undo != null) undo.reset();
+		if (trace != null) trace.start(snapshot());
+	}
+	
+	/**
+	 * Starts counting executed instructions, see Profiler. While a
+	 * profiler is set run() executes one instruction at a time whatever
+	 * the engine, so every step is counted.
+	 * @param profiler the profiler, null to stop profiling
+	 */
+	public void setProfiler(Profiler profiler) {
+		if (profiler != null) profiler.fit(codeSize);
+		this.profiler = profiler;
+		updateObserved();
+	}
+	
+	public Profiler getProfiler() {
+		return profiler;
+	}
+	
+	/**
+	 * Adds a watchpoint. While there are watchpoints run() uses the
+	 * interpreter whatever the engine, without fused sequences, and
+	 * data memory tells the machine about each access to a watched
+	 * address, so run() can stop right after the instruction that made
+	 * the access and report its program counter. Only accesses to
+	 * watched addresses go further than a bit test; without watchpoints
+	 * nothing is checked at all.
+	 */
+	public void addWatchpoint(Watchpoint watchpoint) {
+		if (badAddress(watchpoint.getAddress())) {
+			throw new IllegalArgumentException("Address " + watchpoint.getAddress() + " is not in data memory");
+		}
+		Watchpoint[] more = Arrays.copyOf(watchpoints, watchpoints.length + 1);
+		more[watchpoints.length] = watchpoint;
+		setWatchpoints(more);
+	}
+	
+	public void removeWatchpoint(Watchpoint watchpoint) {
+		setWatchpoints(Arrays.stream(watchpoints).filter(w -> w != watchpoint).toArray(Watchpoint[]::new));
+	}
+	
+	public void clearWatchpoints() {
+		setWatchpoints(new Watchpoint[0]);
+	}
+	
+	public List<Watchpoint> getWatchpoints() {
+		return List.of(watchpoints);
+	}
+	
+	private void setWatchpoints(Watchpoint[] list) {
+		watchpoints = list;
+		if (list.length == 0) memory.setWatched(null, null);
+		else {
+			long[] bits = new long[(dataSize + 63) >>> 6];
+			for (Watchpoint w : list) {
+				bits[w.getAddress() >>> 6] |= 1L << w.getAddress();
+			}
+			memory.setWatched(bits, this::watched);
+		}
+		updateObserved();
+	}
+	
+	private void updateObserved() {
+		observed = trace != null || profiler != null || undo != null;
+	}
+	
+	/**
+	 * Starts logging what every step changes so it can be undone, see
+	 * UndoLog. While a log is set run() executes one instruction at a
+	 * time whatever the engine, like with a trace recorder. The log is
+	 * emptied by restore(), clear(), setData, setAccum and setPC.
+	 * @param log the log, null to stop logging
+	 */
+	public void setUndoLog(UndoLog log) {
+		if (log != null) log.reset();
+		undo = log;
+		updateObserved();
+	}
+	
+	public UndoLog getUndoLog() {
+		return undo;
+	}
+	
+	/**
+	 * Undoes the last step
+	 * @return false if there was no step to undo
+	 */
+	public boolean stepBack() {
+		return rewind(1) == 1;
+	}
+	
+	/**
+	 * Puts the machine back in the state it was in steps steps ago, or
+	 * as far back as the undo log goes. The time taken grows with the
+	 * steps undone, up to the snapshot interval of the log if it has a
+	 * snapshot between now and then. A run() after rewinding executes
+	 * the instruction at the program counter also if it has a breakpoint.
+	 * @return the number of steps undone, 0 without an undo log
+	 */
+	public long rewind(long steps) {
+		if (undo == null || steps <= 0) return 0;
+		long now = undo.getSteps();
+		long target = now - Math.min(steps, undo.getUndoable());
+		Snapshot saved = undo.snapshotFor(target);
+		long step = now;
+		if (saved != null) {
+			memory.restoreData(saved);
+			cpu.accum = saved.accum;
+			cpu.pc = saved.pc;
+			step = undo.stepOf(target);
+		}
+		while (step > target) {
+			step--;
+			int address = undo.getAddress(step);
+			if (address >= 0) memory.setData(address, undo.getOldValue(step));
+			cpu.accum = undo.getAccum(step);
+			cpu.pc = undo.getPC(step);
+		}
+		undo.truncate(target);
+		if (trace != null) trace.start(snapshot());
+		fault = Fault.NONE;
+		loopValid = false;
+		resumePC = cpu.pc;
+		return now - target;
+	}
+	
+	/**
+	 * @return the watchpoint the last step() or run() stopped at, null
+	 * if none did
+	 */
+	public WatchEvent getWatchEvent() {
+		return watchEvent;
+	}
+	
+	// Memory.Watcher for the watched addresses
+	private void watched(int index, boolean write, int oldValue, int value) {
+		if (!watchStep) return; // not an instruction, the GUI or a trace reading
+		for (Watchpoint w : watchpoints) {
+			if (!w.matches(index, write, value)) continue;
+			WatchEvent event = new WatchEvent(w, cpu.pc, memory.getCode(cpu.pc), oldValue, value);
+			if (w.getCallback() != null) w.getCallback().accept(event);
+			else if (watchEvent == null) watchEvent = event;
+		}
+	}
+	
+	/**
+	 * interpretOne for the observed loop, which run() and step() use
+	 * instead of the engines while a debugging facility is on
+	 */
+	private boolean observeOne() {
+		int pc = cpu.pc;
+		int accum = cpu.accum;
+		int address = -1;
+		int oldValue = 0;
+		if ((trace != null || undo != null) && pc >= 0 && pc < codeSize) {
+			address = storeAddress(memory.getCodeOp(pc), memory.getArg(pc));
+			if (address >= 0) oldValue = memory.getData(address);
+		}
+		if (undo != null && undo.wantsSnapshot()) undo.addSnapshot(snapshot());
+		watchStep = true;
+		boolean stop = interpretOne();
+		watchStep = false;
+		if (fault != Fault.NONE) return stop;
+		if (undo != null) undo.record(pc, accum, address, oldValue);
+		if (trace != null) {
+			trace.record(pc, memory.getCodeOp(pc), cpu.accum, cpu.pc, address, oldValue,
+					address < 0 ? 0 : memory.getData(address));
+		}
+		if (profiler != null) profiler.record(pc, memory.getCodeOp(pc), accum);
+		return stop;
+	}
+	
+	/**
+	 * @return the data address a STO instruction will write, -1 if
+	 * the instruction is no STO or the address is out of range
+	 */
+	private int storeAddress(int op, int arg) {
+		if (op == (STO << 2 | DIRECT)) return badAddress(arg) ? -1 : arg;
+		if (op != (STO << 2 | INDIRECT) || badAddress(arg)) return -1;
+		int address = memory.getData(arg);
+		return badAddress(address) ? -1 : address;
+	}
+	
+	/**
+	 * Observed loop of run(), see observeOne
+	 */
+	private long observe(long maxSteps) {
+		long steps = 0;
+		while (steps < maxSteps) {
+			boolean stop = observeOne();
+			if (fault != Fault.NONE) break;
+			steps++;
+			if (stop) {
+				haltReached = true;
+				break;
+			}
+			if (watchEvent != null) break;
+		}
+		return steps;
+	}
+	
+	/**
+	 * Executes the fused sequence starting at pc. The program counter
+	 * is advanced after each part, so a fault in a later part leaves
+	 * the machine as step() would have left it.
+	 */
+	private Fault executeFused(int op, int pc) {
+		int arg = memory.getArg(pc);
+		switch (op) {
+		case Fusion.CMPZ_JMPZ:
+			if (badAddress(arg)) return dataFault(arg);
+			if (memory.getData(arg) == 0) cpu.accum = 1;
+			else cpu.accum = 0;
+			if (cpu.accum == 0) cpu.pc = fusion.getTarget(pc);
+			else cpu.pc = pc + 2;
+			break;
+		case Fusion.CMPL_JMPZ:
+			if (badAddress(arg)) return dataFault(arg);
+			if (memory.getData(arg) < 0) cpu.accum = 1;
+			else cpu.accum = 0;
+			if (cpu.accum == 0) cpu.pc = fusion.getTarget(pc);
+			else cpu.pc = pc + 2;
+			break;
+		default: // Fusion.LOAD_ARITH_STORE
+			int first = memory.getOp(pc);
+			int second = memory.getOp(pc + 1);
+			if (modeOf(first) == IMMEDIATE) cpu.accum = arg;
+			else if (badAddress(arg)) return dataFault(arg);
+			else cpu.accum = memory.getData(arg);
+			cpu.pc = pc + 1;
+			arg = memory.getArg(pc + 1);
+			int operand;
+			if (modeOf(second) == IMMEDIATE) operand = arg;
+			else if (badAddress(arg)) return dataFault(arg);
+			else operand = memory.getData(arg);
+			if (operationOf(second) == ADD) cpu.accum += operand;
+			else if (operationOf(second) == SUB) cpu.accum -= operand;
+			else cpu.accum *= operand;
+			cpu.pc = pc + 2;
+			arg = memory.getArg(pc + 2);
+			if (badAddress(arg)) return dataFault(arg);
+			memory.setData(arg, cpu.accum);
+			cpu.pc = pc + 3;
+		}
+		return Fault.NONE;
+	}
+	
+	/**
+	 * Interpreter loop of run(). Unlike calling step() in a loop, common
+	 * instruction sequences are executed as one superinstruction, see Fusion,
+	 * and a verified program skips the range checks, see verify().
+	 */
+	private long interpret(long maxSteps) {
+		if (fusion == null) fusion = new Fusion(memory);
+		// control never leaves a verified program once it is inside
+		boolean verified = verifier != null && verifier.isVerified()
+				&& cpu.pc >= 0 && cpu.pc < verifier.getEnd();
+		// a watchpoint stops after the instruction, not after the sequence
+		boolean watching = watchpoints.length > 0;
+		watchStep = watching;
+		long steps = 0;
+		long fusedSteps = 0;
+		while (steps < maxSteps) {
+			int pc = cpu.pc;
+			if (!verified && (pc < 0 || pc >= codeSize)) {
+				fault(Fault.CODE_ADDRESS, pc);
+				break;
+			}
+			int op = fusion.getOp(pc);
+			if (op >= BREAK) {
+				// one test for fused operations, breakpoints and BAD_FLAGS
+				if (op >= Fusion.CMPZ_JMPZ) {
+					int length = Fusion.length(op);
+					if (maxSteps - steps >= length && !watching) {
+						Fault f = executeFused(op, pc);
+						if (f != Fault.NONE) {
+							// count the parts done before the fault
+							steps += cpu.pc - pc;
+							fusedSteps += cpu.pc - pc;
+							fault(f, faultDetail);
+							break;
+						}
+						steps += length;
+						fusedSteps += length;
+						continue;
+					}
+					op = memory.getOp(pc);
+				}
+				else if (op == BREAK) {
+					if (pc != resumePC) {
+						fault(Fault.BREAKPOINT, pc);
+						break;
+					}
+					resumePC = -1;
+					op = memory.getCodeOp(pc);
+				}
+			}
+			Fault f = verified ? executeVerified(op, memory.getArg(pc)) : execute(op, memory.getArg(pc));
+			if (f != Fault.NONE) {
+				fault(f, faultDetail);
+				break;
+			}
+			steps++;
+			if (op == HALT << 2) {
+				haltReached = true;
+				break;
+			}
+			if (watching && watchEvent != null) break;
+		}
+		watchStep = false;
+		fusion.record(steps, fusedSteps);
+		return steps;
+	}
+	
+	/**
+	 * @return the number of superinstructions found in the program,
+	 * 0 before the interpreter engine was used
+	 */
+	public int getFusionSites() {
+		return fusion == null ? 0 : fusion.getSites();
+	}
+	
+	/**
+	 * @return the fraction of the instructions executed by the interpreter engine
+	 * since the program was loaded that ran inside a superinstruction
+	 */
+	public double getFusionHitRate() {
+		return fusion == null ? 0 : fusion.getHitRate();
+	}
+	
+	/**
+	 * Translates the program now in code memory to JVM bytecode, see
+	 * BytecodeCompiler. Since STO only writes data memory the compiled
+	 * code stays valid until code memory is changed through setCode or
+	 * clear. Called by run() with the COMPILED engine if needed.
+	 * @throws IllegalStateException if the program is too large to compile
+	 */
+	public void compile() {
+		compiled = BytecodeCompiler.compileProgram(memory);
+	}
+	
+	/**
+	 * @return true if the COMPILED engine could not compile the program in
+	 * code memory and interprets it instead, until code memory changes
+	 */
+	public boolean isCompileFailed() {
+		return compileFailed;
+	}
+	
+	/**
+	 * Compiled engine loop of run(). Instructions the compiled code hands
+	 * back (HALT and any instruction that faults) are interpreted, and so
+	 * is a program too large to compile, which is not tried again.
+	 */
+	private long runCompiled(long maxSteps) {
+		if (compiled == null) {
+			if (compileFailed) return interpret(maxSteps);
+			try {
+				compile();
+			} catch (IllegalStateException e) {
+				compileFailed = true;
+				return interpret(maxSteps);
+			}
+		}
+		long steps = 0;
+		while (steps < maxSteps) {
+			steps += compiled.run(memory, cpu, maxSteps - steps);
+			if (steps == maxSteps) break;
+			boolean stop = interpretOne();
+			if (fault != Fault.NONE) break;
+			steps++;
+			if (stop) {
+				haltReached = true;
+				break;
+			}
+		}
+		return steps;
+	}
+	
+	/**
+	 * Tiered engine loop of run(): instructions are interpreted and a basic
+	 * block is compiled on its own once the interpreter has entered it
+	 * tierThreshold times.
+	 */
+	private long runTiered(long maxSteps) {
+		if (tiering == null) tiering = new Tiering(memory, tierThreshold);
+		long steps = 0;
+		while (steps < maxSteps) {
+			CompiledCode block = tiering.enter(cpu.pc);
+			if (block != null) {
+				long done = block.run(memory, cpu, maxSteps - steps);
+				steps += done;
+				if (done > 0) continue;
+			}
+			boolean stop = interpretOne();
+			if (fault != Fault.NONE) break;
+			steps++;
+			if (stop) {
+				haltReached = true;
+				break;
+			}
+		}
+		return steps;
+	}
+	
+	/**
+	 * Runs the program from the current program counter until HALT has
+	 * executed, an instruction faults or maxSteps instructions have
+	 * executed, using the engine chosen with setEngine. The machine ends
+	 * in the state the same number of step() calls would leave it in.
+	 * Unlike step(), the HaltCallback is not called and faults are not
+	 * thrown: both are reported in the result.
+	 * @param maxSteps the most instructions to execute
+	 * @return why the run stopped, how many instructions were executed
+	 * and, for a fault, the fault and the program counter it occurred at
+	 */
+	public RunResult run(long maxSteps) {
+		cancelled = false;
+		return runCancellable(maxSteps);
+	}
+	
+	/**
+	 * run() without forgetting an earlier cancel(), for MachineFarm,
+	 * which calls clearCancel while it holds the lock of the machine, so
+	 * a cancel() between that and the start of the run still stops it
+	 */
+	RunResult runCancellable(long maxSteps) {
+		haltReached = false;
+		stopped = null;
+		fault = Fault.NONE;
+		watchEvent = null;
+		if (cpu.pc != resumePC) resumePC = -1;
+		long steps = runChunked(maxSteps);
+		if (fault == Fault.BREAKPOINT) {
+			fault = Fault.NONE;
+			resumePC = cpu.pc;
+			return new RunResult(RunResult.Reason.BREAKPOINT, steps, cpu.pc);
+		}
+		if (fault != Fault.NONE) {
+			return new RunResult(steps, faultPC, fault, faultDetail, fault == Fault.CODE_ADDRESS ? codeSize : dataSize);
+		}
+		if (stopped != null) return new RunResult(stopped, steps, cpu.pc);
+		if (haltReached) return new RunResult(RunResult.Reason.HALTED, steps, cpu.pc);
+		return new RunResult(RunResult.Reason.STEP_LIMIT, steps, cpu.pc);
+	}
+	
+	private long runEngine(long maxSteps) {
+		if (observed) return observe(maxSteps);
+		// the interpreter reads and writes data memory through the watch hook
+		if (watchpoints.length > 0) return interpret(maxSteps);
+		if (engine == Engine.COMPILED) return runCompiled(maxSteps);
+		if (engine == Engine.TIERED) return runTiered(maxSteps);
+		return interpret(maxSteps);
+	}
+	
+	/**
+	 * Runs the engine in chunks. After each chunk run() is stopped if it
+	 * was cancelled, a limit was reached or an endless loop was found.
+	 * When sampling, the program counter is published at points a random
+	 * number of steps around sampleInterval apart, which keeps samples
+	 * from lining up with loops in the program. Loop checks need chunks
+	 * of exactly loopInterval steps, so a chunk ends at whichever of the
+	 * next sample point and the next loop check comes first. Near the write
+	 * and address limits chunks get so short that a limit can only be
+	 * passed by the last instruction of a chunk: a step writes at most
+	 * one address and touches at most two new ones.
+	 */
+	private long runChunked(long maxSteps) {
+		if (loopInterval > 0 && !continuesLoopCheck()) startLoopCheck();
+		boolean limited = writeLimit >= 0 || addressLimit >= 0;
+		if (limited) memory.startCounting();
+		long start = timeLimit >= 0 ? System.nanoTime() : 0;
+		long steps = 0;
+		try {
+			while (steps < maxSteps) {
+				if (sampleInterval > 0 && sampleLeft <= 0) {
+					publishedPC = cpu.pc;
+					chunkSeed ^= chunkSeed << 13;
+					chunkSeed ^= chunkSeed >>> 17;
+					chunkSeed ^= chunkSeed << 5;
+					sampleLeft = sampleInterval / 2 + 1 + (chunkSeed & 0x7fffffff) % sampleInterval;
+				}
+				long chunk = Math.min(maxSteps - steps, CHECK_INTERVAL);
+				if (loopInterval > 0) chunk = Math.min(chunk, loopChunkLeft);
+				if (sampleInterval > 0) chunk = Math.min(chunk, sampleLeft);
+				if (writeLimit >= 0) chunk = Math.min(chunk, writeLimit - memory.getWrites() + 1);
+				if (addressLimit >= 0) chunk = Math.min(chunk, (addressLimit - memory.getTouched()) / 2 + 1);
+				long done = runEngine(chunk);
+				steps += done;
+				sampleLeft -= done;
+				if (haltReached || fault != Fault.NONE) break;
+				if (watchEvent != null) stopped = RunResult.Reason.WATCHPOINT;
+				else if (writeLimit >= 0 && memory.getWrites() > writeLimit) stopped = RunResult.Reason.WRITE_LIMIT;
+				else if (addressLimit >= 0 && memory.getTouched() > addressLimit) stopped = RunResult.Reason.ADDRESS_LIMIT;
+				else if (cancelled) stopped = RunResult.Reason.CANCELLED;
+				else if (timeLimit >= 0 && System.nanoTime() - start > timeLimit) stopped = RunResult.Reason.TIME_LIMIT;
+				else if (loopInterval > 0 && (loopChunkLeft -= done) == 0) {
+					loopChunkLeft = loopInterval;
+					if (stateRepeated()) stopped = RunResult.Reason.NON_TERMINATING;
+				}
+				if (stopped != null) break;
+			}
+		}
+		finally {
+			publishedPC = -1;
+			if (limited) memory.stopCounting();
+			loopValid = loopInterval > 0 && !haltReached && fault == Fault.NONE;
+			loopEndPC = cpu.pc;
+			loopEndAccum = cpu.accum;
+			loopEndHash = memory.getDataHash();
+		}
+		return steps;
+	}
+	
+	/**
+	 * Stops the run() in progress, from any thread. The run stops within
+	 * a few thousand instructions with the reason CANCELLED. Has no
+	 * effect on a run that starts later.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	void clearCancel() {
+		cancelled = false;
+	}
+	
+	/**
+	 * Limits the wall time of every run(), which stops with TIME_LIMIT
+	 * within a few thousand instructions after the time is up
+	 * @param nanos the time in nanoseconds, -1 for no limit
+	 */
+	public void setTimeLimit(long nanos) {
+		if (nanos < -1) throw new IllegalArgumentException("Limit must be -1 or more");
+		timeLimit = nanos;
+	}
+	
+	public long getTimeLimit() {
+		return timeLimit;
+	}
+	
+	/**
+	 * Limits the data writes of every run(), which stops with WRITE_LIMIT
+	 * right after the instruction that writes once too often
+	 * @param writes the number of writes, -1 for no limit
+	 */
+	public void setWriteLimit(long writes) {
+		if (writes < -1) throw new IllegalArgumentException("Limit must be -1 or more");
+		writeLimit = writes;
+	}
+	
+	public long getWriteLimit() {
+		return writeLimit;
+	}
+	
+	/**
+	 * Limits the distinct data addresses every run() reads or writes.
+	 * The run stops with ADDRESS_LIMIT right after the instruction that
+	 * touches one address too many.
+	 * @param addresses the number of addresses, -1 for no limit
+	 */
+	public void setAddressLimit(int addresses) {
+		if (addresses < -1) throw new IllegalArgumentException("Limit must be -1 or more");
+		addressLimit = addresses;
+	}
+	
+	public int getAddressLimit() {
+		return addressLimit;
+	}
+	
+	/**
+	 * @return true if the machine is still in the state the last run
+	 * ended in, so the loop check can go on where it stopped
+	 */
+	private boolean continuesLoopCheck() {
+		return loopValid && cpu.pc == loopEndPC && cpu.accum == loopEndAccum
+				&& memory.getDataHash() == loopEndHash;
+	}
+	
+	private void startLoopCheck() {
+		loopChunkLeft = loopInterval;
+		loopPower = 1;
+		loopLength = 0;
+		saveLoopState();
+	}
+	
+	private void saveLoopState() {
+		loopPC = cpu.pc;
+		loopAccum = cpu.accum;
+		loopHash = memory.getDataHash();
+		loopData = memory.copyPages();
+	}
+	
+	/**
+	 * One step of Brent's cycle detection: compares the state with the
+	 * saved one, which moves up to the current state whenever the number
+	 * of checks since it was saved reaches the next power of two.
+	 * @return true if the state equals the saved state
+	 */
+	private boolean stateRepeated() {
+		if (cpu.pc == loopPC && cpu.accum == loopAccum && memory.getDataHash() == loopHash
+				&& memory.samePages(loopData)) return true;
+		if (++loopLength == loopPower) {
+			loopPower *= 2;
+			loopLength = 0;
+			saveLoopState();
+		}
+		return false;
+	}
+	
+	/**
+	 * Makes run() check every interval steps whether the machine is in
+	 * a state (program counter, accumulator and data memory) it was in
+	 * at an earlier check. Since the machine is deterministic it would
+	 * then run forever, and run() stops with NON_TERMINATING. A loop is
+	 * found at most a few times its length in steps after it starts,
+	 * rounded up to interval. Loops that keep changing data memory, such
+	 * as a counter, are not found. Not used while tracing or profiling.
+	 * @param interval the steps between checks, 0 for no checks
+	 */
+	public void setLoopCheckInterval(int interval) {
+		if (interval < 0) throw new IllegalArgumentException("Interval must not be negative");
+		loopInterval = interval;
+		loopValid = false;
+		memory.setHashing(interval > 0);
+	}
+	
+	public int getLoopCheckInterval() {
+		return loopInterval;
+	}
+	
+	/**
+	 * Makes run() publish the program counter about every interval steps
+	 * for a SamplingProfiler to read from another thread, see getPublishedPC
+	 * @param interval the average number of steps between publications,
+	 * 0 to stop publishing
+	 */
+	public void setSampleInterval(int interval) {
+		if (interval < 0) throw new IllegalArgumentException("Interval must not be negative");
+		sampleInterval = interval;
+		sampleLeft = 0;
+	}
+	
+	public int getSampleInterval() {
+		return sampleInterval;
+	}
+	
+	/**
+	 * Safe to call from any thread
+	 * @return the program counter run() last published, -1 if no run
+	 * that publishes is executing
+	 */
+	public int getPublishedPC() {
+		return publishedPC;
+	}
+	
+	public Engine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * Chooses how run() executes the program. All engines give the same
+	 * results; INTERPRETER starts fastest, COMPILED translates the whole
+	 * program to bytecode first and TIERED compiles only hot blocks.
+	 * @param engine the engine to use
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * Sets how many times the tiered engine interprets a basic block
+	 * before compiling it. Restarts the counts of all blocks.
+	 * @param entries the number of entries, at least 1
+	 */
+	public void setTierThreshold(int entries) {
+		if (entries < 1) throw new IllegalArgumentException("Threshold must be at least 1");
+		tierThreshold = entries;
+		tiering = null;
+	}
+	
+	/**
+	 * @return the basic blocks of the program with their entry counts,
+	 * tier and compile time, empty before the tiered engine was used
+	 */
+	public List<BlockTier> getBlockTiers() {
+		if (tiering == null) return List.of();
+		return tiering.getBlockTiers();
+	}
+	
 }
-
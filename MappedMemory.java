@@ -0,0 +1,121 @@
+package project;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory whose data memory is a file mapped into memory instead of an
+ * array on the Java heap. The file holds the words of data memory in
+ * order, 4 bytes each, little endian, and nothing else, so any other
+ * process that maps or reads it sees the values the machine writes while
+ * it runs. An existing file is opened with its contents, so the data
+ * survives a restart of the program; a new or empty file starts out as
+ * zeros. Code memory is an array as in Memory.
+ */
+class MappedMemory extends Memory {
+
+	private final MappedByteBuffer buffer;
+	private final IntBuffer ints;
+
+	MappedMemory(Path file, int dataSize, int codeSize) throws IOException {
+		super(dataSize, codeSize, false);
+		long bytes = 4L * dataSize;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long size = channel.size();
+			if (size != 0 && size != bytes) {
+				throw new IllegalArgumentException("The file holds " + size / 4 + " words, not " + dataSize);
+			}
+			// the mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+		}
+		ints = buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= getDataSize()) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + getDataSize());
+		}
+	}
+
+	/**
+	 * A copy of the whole data memory
+	 */
+	@Override
+	int[] getData() {
+		return getData(0, getDataSize());
+	}
+
+	@Override
+	int getData(int index) {
+		check(index);
+		int value = ints.get(index);
+		if (checked) checkRead(index, value);
+		return value;
+	}
+
+	@Override
+	void setData(int index, int value) {
+		check(index);
+		if (checked) checkWrite(index, ints.get(index), value);
+		if (tracking) markDirty(index);
+		if (hashing) dataHash += ((long) value - ints.get(index)) * hashWeight(index);
+		ints.put(index, value);
+		changedDataIndex = index;
+	}
+
+	@Override
+	int[] getData(int min, int max) {
+		int[] copy = new int[max - min];
+		ints.get(min, copy);
+		return copy;
+	}
+
+	@Override
+	void clearData() {
+		for (int i = 0; i < getDataSize(); i++) {
+			ints.put(i, 0);
+		}
+		dataHash = 0;
+		changedDataIndex = -1;
+		markAllDirty();
+	}
+
+	@Override
+	int[][] copyPages() {
+		return new int[][] {getData()};
+	}
+
+	@Override
+	boolean samePages(int[][] pages) {
+		return ints.equals(IntBuffer.wrap(pages[0]));
+	}
+
+	@Override
+	void restorePages(int[][] pages) {
+		ints.put(0, pages[0]);
+	}
+
+	@Override
+	void rehash() {
+		dataHash = 0;
+		for (int i = 0; i < getDataSize(); i++) {
+			dataHash += ints.get(i) * hashWeight(i);
+		}
+	}
+
+	/**
+	 * Writes the changed data to the file, so it is complete even if the
+	 * machine stops without the operating system writing it back
+	 */
+	@Override
+	void force() {
+		buffer.force();
+	}
+
+}
@@ -1,25 +1,97 @@
 package project;
 
 import java.util.Arrays;
+import java.util.stream.IntStream;
 
 public class Memory {
 	
 	public static final int DATA_SIZE = 512;
-	private int[] data = new int[DATA_SIZE];
 	public static final int CODE_SIZE = 256;
-	private Instruction[] code = new Instruction[CODE_SIZE];
-	private int changedDataIndex = -1;
+	static final short NO_OPCODE = -1;
+	private final int dataSize;
+	private final int codeSize;
+	private int[] data; // null in PagedMemory
+	// code memory as parallel arrays: the opcode of each instruction,
+	// NO_OPCODE for an empty address, and its argument; Instruction
+	// objects are only made by getCode
+	private short[] opcodes;
+	private int[] args;
+	// predecoded form of opcodes, see Decoder, filled in by setCode
+	private byte[] ops;
+	// the code arrays are those of a Program or Snapshot, which never
+	// change, so they are copied before code memory is first changed
+	private boolean sharedCode;
+	// code addresses whose op is replaced by Decoder.BREAK, null for none
+	private boolean[] breakpoints;
+	int changedDataIndex = -1;
+	// data hash: sum of data[i] * hashWeight(i), kept up to date by
+	// setData while hashing is on
+	long dataHash;
+	boolean hashing;
+	private long[] weights; // hashWeight of every address of data
+	// counting is on or addresses are watched, so every access calls
+	// checkRead or checkWrite
+	boolean checked;
+	// writes and distinct addresses read or written while counting is on
+	private boolean counting;
+	private long writes;
+	private long[] touched; // one bit per data address
+	private int touchedCount;
+	private long[] watched; // one bit per watched data address, null for none
+	private Watcher watcher;
+	// data addresses and pages written since the last clearDirty while
+	// tracking is on, as bitmaps and as lists in the order of the first write
+	boolean tracking;
+	private long[] dirtyWords;
+	private long[] dirtyPages;
+	private int[] dirtyList;
+	private int[] dirtyPageList;
+	private int dirtyCount;
+	private int dirtyPageCount;
+	private int dirtyPageShift;
+	private boolean allDirty; // the whole of data memory, without the lists
 	private int programSize = 0;
 	
+	Memory() {
+		this(DATA_SIZE, CODE_SIZE, true);
+	}
+	
+	/**
+	 * @param flat true for data memory in one array, false for PagedMemory
+	 */
+	Memory(int dataSize, int codeSize, boolean flat) {
+		if (dataSize < 1 || codeSize < 1) throw new IllegalArgumentException("Memory sizes must be at least 1");
+		this.dataSize = dataSize;
+		this.codeSize = codeSize;
+		if (flat) data = new int[dataSize];
+		opcodes = new short[codeSize];
+		ops = new byte[codeSize];
+		args = new int[codeSize];
+		Arrays.fill(opcodes, NO_OPCODE);
+		Arrays.fill(ops, (byte) Decoder.EMPTY);
+	}
+	
+	int getDataSize() {
+		return dataSize;
+	}
+	
+	int getCodeSize() {
+		return codeSize;
+	}
+	
 	int[] getData() {
 		return data;
 	}
 	
 	int getData(int index) {
+		if (checked) checkRead(index, data[index]);
 		return data[index];
 	}
 	
 	void setData(int index, int value) {
+		if (checked) checkWrite(index, data[index], value);
+		if (tracking) markDirty(index);
+		if (hashing) dataHash += ((long) value - data[index]) * weights[index];
 		data[index] = value;
 		changedDataIndex = index;
 	}
@@ -32,7 +104,238 @@ public class Memory {
 		for (int i = 0; i < data.length; i++) {
 			data[i] = 0;
 		}
+		dataHash = 0;
 		changedDataIndex = -1;
+		markAllDirty();
+	}
+	
+	/**
+	 * The data memory as pages of getPageSize() words, for snapshots;
+	 * a null page holds only zeros. Flat memory is a single page.
+	 */
+	int getPageSize() {
+		return dataSize;
+	}
+	
+	/**
+	 * @return a copy of the pages of data memory
+	 */
+	int[][] copyPages() {
+		return new int[][] {data.clone()};
+	}
+	
+	/**
+	 * @return true if data memory holds exactly the values of the pages
+	 */
+	boolean samePages(int[][] pages) {
+		return Arrays.equals(data, pages[0]);
+	}
+	
+	void restorePages(int[][] pages) {
+		System.arraycopy(pages[0], 0, data, 0, data.length);
+	}
+	
+	/**
+	 * @return a hash of data memory, updated by every setData instead of
+	 * being computed again; equal data always has an equal hash. Only
+	 * valid while hashing is on.
+	 */
+	long getDataHash() {
+		return dataHash;
+	}
+	
+	/**
+	 * Turns the upkeep of the data hash on or off; off by default since
+	 * it costs a multiplication per write
+	 */
+	void setHashing(boolean on) {
+		if (on && data != null && weights == null) {
+			weights = new long[dataSize];
+			for (int i = 0; i < dataSize; i++) {
+				weights[i] = hashWeight(i);
+			}
+		}
+		if (on && !hashing) rehash();
+		hashing = on;
+	}
+	
+	/**
+	 * The weight of an address in the data hash: a fixed odd number
+	 * that looks random, from the finalizer of SplitMix64
+	 */
+	static long hashWeight(int index) {
+		long z = (index + 1) * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return (z ^ (z >>> 31)) | 1;
+	}
+	
+	void rehash() {
+		dataHash = 0;
+		for (int i = 0; i < data.length; i++) {
+			dataHash += data[i] * weights[i];
+		}
+	}
+	
+	/**
+	 * Starts counting writes and distinct addresses from 0, which costs
+	 * a check on every access while it is on
+	 */
+	void startCounting() {
+		if (touched == null) touched = new long[(dataSize + 63) >>> 6];
+		else Arrays.fill(touched, 0);
+		touchedCount = 0;
+		writes = 0;
+		counting = true;
+		checked = true;
+	}
+	
+	void stopCounting() {
+		counting = false;
+		checked = watched != null;
+	}
+	
+	/**
+	 * Told about every access to a watched address
+	 */
+	interface Watcher {
+		void accessed(int index, boolean write, int oldValue, int value);
+	}
+	
+	/**
+	 * @param watched one bit per data address, set for the addresses the
+	 * watcher is told about; null to watch nothing, which costs nothing
+	 */
+	void setWatched(long[] watched, Watcher watcher) {
+		this.watched = watched;
+		this.watcher = watcher;
+		checked = counting || watched != null;
+	}
+	
+	final void checkRead(int index, int value) {
+		if (counting) touch(index);
+		if (watched != null && (watched[index >>> 6] & 1L << index) != 0) {
+			watcher.accessed(index, false, value, value);
+		}
+	}
+	
+	final void checkWrite(int index, int oldValue, int value) {
+		if (counting) countWrite(index);
+		if (watched != null && (watched[index >>> 6] & 1L << index) != 0) {
+			watcher.accessed(index, true, oldValue, value);
+		}
+	}
+	
+	final void touch(int index) {
+		long bit = 1L << index;
+		if ((touched[index >>> 6] & bit) == 0) {
+			touched[index >>> 6] |= bit;
+			touchedCount++;
+		}
+	}
+	
+	final void countWrite(int index) {
+		touch(index);
+		writes++;
+	}
+	
+	/**
+	 * Turns the dirty set on or off; off by default since it costs a
+	 * check on every write. Turning it on starts with an empty set.
+	 */
+	void setTracking(boolean on) {
+		if (on && dirtyWords == null) {
+			int pageSize = getDirtyPageSize();
+			dirtyPageShift = Integer.numberOfTrailingZeros(pageSize);
+			int pages = (int) (((long) dataSize + pageSize - 1) >>> dirtyPageShift);
+			dirtyWords = new long[(dataSize + 63) >>> 6];
+			dirtyPages = new long[(pages + 63) >>> 6];
+			dirtyList = new int[Math.min(dataSize, 64)];
+			dirtyPageList = new int[Math.min(pages, 64)];
+		}
+		if (on && !tracking) clearDirty();
+		tracking = on;
+	}
+	
+	/**
+	 * The words per page of the dirty set: the page size of paged data
+	 * memory, otherwise 64
+	 */
+	int getDirtyPageSize() {
+		int pageSize = getPageSize();
+		return pageSize < dataSize ? pageSize : 64;
+	}
+	
+	final void markDirty(int index) {
+		if (allDirty) return;
+		long bit = 1L << index;
+		if ((dirtyWords[index >>> 6] & bit) != 0) return;
+		dirtyWords[index >>> 6] |= bit;
+		if (dirtyCount == dirtyList.length) dirtyList = Arrays.copyOf(dirtyList, 2 * dirtyCount);
+		dirtyList[dirtyCount++] = index;
+		int page = index >>> dirtyPageShift;
+		bit = 1L << page;
+		if ((dirtyPages[page >>> 6] & bit) != 0) return;
+		dirtyPages[page >>> 6] |= bit;
+		if (dirtyPageCount == dirtyPageList.length) dirtyPageList = Arrays.copyOf(dirtyPageList, 2 * dirtyPageCount);
+		dirtyPageList[dirtyPageCount++] = page;
+	}
+	
+	/**
+	 * Marks every address, after data memory was changed as a whole,
+	 * with one flag instead of the bitmaps, which stay as they were
+	 * until clearDirty
+	 */
+	final void markAllDirty() {
+		if (tracking) allDirty = true;
+	}
+	
+	/**
+	 * @return the data addresses written since the last clearDirty,
+	 * every address in order after markAllDirty
+	 */
+	int[] getDirtyData() {
+		if (allDirty) return IntStream.range(0, dataSize).toArray();
+		return Arrays.copyOf(dirtyList, dirtyCount);
+	}
+	
+	/**
+	 * @return the pages of getDirtyPageSize() words written since the
+	 * last clearDirty
+	 */
+	int[] getDirtyPages() {
+		if (allDirty) return IntStream.range(0, (int) (((long) dataSize + getDirtyPageSize() - 1) >>> dirtyPageShift)).toArray();
+		return Arrays.copyOf(dirtyPageList, dirtyPageCount);
+	}
+	
+	/**
+	 * Empties the dirty set, clearing only the bits that are set
+	 */
+	void clearDirty() {
+		for (int i = 0; i < dirtyCount; i++) {
+			dirtyWords[dirtyList[i] >>> 6] = 0;
+		}
+		for (int i = 0; i < dirtyPageCount; i++) {
+			dirtyPages[dirtyPageList[i] >>> 6] = 0;
+		}
+		dirtyCount = 0;
+		dirtyPageCount = 0;
+		allDirty = false;
+	}
+	
+	long getWrites() {
+		return writes;
+	}
+	
+	int getTouched() {
+		return touchedCount;
+	}
+	
+	/**
+	 * Writes data memory to its backing store, nothing to do for memory
+	 * on the heap
+	 */
+	void force() {
 	}
 	
 	int getChangedDataIndex() {
@@ -43,32 +346,224 @@ public class Memory {
 		return programSize;
 	}
 	
+	/**
+	 * A copy of the whole code memory
+	 */
 	Instruction[] getCode() {
-		return code;
+		return getCode(0, codeSize);
 	}
 	
 	Instruction[] getCode(int min, int max) {
-		return Arrays.copyOfRange(code, min, max);
+		if (min < 0 || max > codeSize) {
+			throw new ArrayIndexOutOfBoundsException("Range " + min + ".." + max + " out of bounds for length " + codeSize);
+		}
+		Instruction[] copy = new Instruction[max - min];
+		for (int i = min; i < max; i++) {
+			copy[i - min] = getCode(i);
+		}
+		return copy;
 	}
 	
+	/**
+	 * @return the instruction at the code address, made from the arrays,
+	 * null for an empty address
+	 */
 	Instruction getCode(int index) {
-		return code[index];
+		return instruction(opcodes[index], args[index]);
+	}
+	
+	static Instruction instruction(short opcode, int arg) {
+		return opcode == NO_OPCODE ? null : new Instruction((byte) opcode, arg);
+	}
+	
+	int getOp(int index) {
+		return ops[index];
+	}
+	
+	/**
+	 * @return the operation id of the instruction, also at a breakpoint
+	 */
+	int getCodeOp(int index) {
+		int op = ops[index];
+		return op == Decoder.BREAK ? Decoder.decode(opcodes[index]) : op;
+	}
+	
+	/**
+	 * Sets or removes a breakpoint by replacing the op of the code address
+	 * with Decoder.BREAK, so the engines stop there without looking up
+	 * the breakpoints at every step
+	 */
+	void setBreakpoint(int index, boolean on) {
+		if (breakpoints == null) {
+			if (!on) return;
+			breakpoints = new boolean[codeSize];
+		}
+		breakpoints[index] = on;
+		ownCode();
+		ops[index] = (byte) (on ? Decoder.BREAK : Decoder.decode(opcodes[index]));
+	}
+	
+	boolean isBreakpoint(int index) {
+		return breakpoints != null && breakpoints[index];
+	}
+	
+	/**
+	 * @return the ops with the breakpoints taken out, for snapshots
+	 */
+	private byte[] codeOps() {
+		byte[] copy = ops.clone();
+		if (breakpoints == null) return copy;
+		for (int i = 0; i < codeSize; i++) {
+			if (breakpoints[i]) copy[i] = (byte) Decoder.decode(opcodes[i]);
+		}
+		return copy;
+	}
+	
+	private void applyBreakpoints() {
+		if (breakpoints == null) return;
+		for (int i = 0; i < codeSize; i++) {
+			if (breakpoints[i]) ops[i] = (byte) Decoder.BREAK;
+		}
+	}
+	
+	int getArg(int index) {
+		return args[index];
+	}
+	
+	/**
+	 * Copies shared code arrays, so they can be changed
+	 */
+	private void ownCode() {
+		if (!sharedCode) return;
+		opcodes = opcodes.clone();
+		ops = ops.clone();
+		args = args.clone();
+		sharedCode = false;
+	}
+	
+	/**
+	 * Makes the code of a program the code memory, without copying it.
+	 * Removes the breakpoints.
+	 */
+	void shareCode(Program.Code code, int pSize) {
+		opcodes = code.opcodes;
+		ops = code.ops;
+		args = code.args;
+		sharedCode = true;
+		breakpoints = null;
+		programSize = pSize;
 	}
 	
 	void setCode(int index, Instruction value) {
-		code[index] = value;
+		ownCode();
+		opcodes[index] = value == null ? NO_OPCODE : (short) (value.opcode & 0xFF);
+		ops[index] = (byte) (isBreakpoint(index) ? Decoder.BREAK : Decoder.decode(value));
+		args[index] = value == null ? 0 : value.arg;
 		programSize = Math.max(programSize, index);
 	}
 	
 	void clearCode() {
-		for (int i = 0; i < code.length; i++) {
-			code[i] = null;
+		if (sharedCode) {
+			opcodes = new short[codeSize];
+			ops = new byte[codeSize];
+			args = new int[codeSize];
+			sharedCode = false;
 		}
+		Arrays.fill(opcodes, NO_OPCODE);
+		Arrays.fill(ops, (byte) Decoder.EMPTY);
+		Arrays.fill(args, 0);
+		breakpoints = null;
 		programSize = -1;
 	}
 	
 	void setProgramSize(int pSize) {
 		programSize = pSize;
 	}
+	
+	Snapshot snapshot(int accum, int pc) {
+		return snapshot(accum, pc, copyPages());
+	}
+	
+	/**
+	 * @return a snapshot with the pages and a copy of code memory, or
+	 * the code arrays themselves if they are shared and hold no breakpoint
+	 */
+	private Snapshot snapshot(int accum, int pc, int[][] pages) {
+		if (sharedCode && breakpoints == null) {
+			return new Snapshot(accum, pc, dataSize, getPageSize(), pages, opcodes, ops, args, programSize);
+		}
+		return new Snapshot(accum, pc, dataSize, getPageSize(), pages,
+				opcodes.clone(), codeOps(), args.clone(), programSize);
+	}
+	
+	/**
+	 * @return true if the snapshot was taken of a memory with the same
+	 * sizes and the same kind of data memory
+	 */
+	boolean fits(Snapshot saved) {
+		return saved.dataSize == dataSize && saved.pageSize == getPageSize() && saved.opcodes.length == codeSize;
+	}
+	
+	void restoreData(Snapshot saved) {
+		restorePages(saved.pages);
+		if (hashing) rehash();
+		changedDataIndex = -1;
+		markAllDirty();
+	}
+	
+	/**
+	 * A snapshot that shares the pages of data memory that are not in
+	 * the dirty set, and code memory if it did not change, with the
+	 * previous one, which must have been taken when the dirty set was
+	 * last cleared. Clears the dirty set for the next checkpoint. Data
+	 * memory in one array is a single page, copied whole if it is dirty.
+	 * After markAllDirty every page is copied, but paged memory leaves
+	 * the pages it never allocated null.
+	 */
+	Snapshot checkpoint(Snapshot previous, int accum, int pc) {
+		int[][] pages = previous.pages;
+		if (allDirty) pages = copyPages();
+		else if (dirtyCount > 0 && pages.length == 1) pages = new int[][] {getData(0, dataSize)};
+		else if (dirtyCount > 0) {
+			// dirty pages are the pages of PagedMemory, see getDirtyPageSize
+			pages = pages.clone();
+			int pageSize = getPageSize();
+			for (int i = 0; i < dirtyPageCount; i++) {
+				int first = dirtyPageList[i] * pageSize;
+				pages[dirtyPageList[i]] = getData(first, first + pageSize);
+			}
+		}
+		clearDirty();
+		if (sameCode(previous)) {
+			return new Snapshot(accum, pc, dataSize, getPageSize(), pages,
+					previous.opcodes, previous.ops, previous.args, programSize);
+		}
+		return snapshot(accum, pc, pages);
+	}
+	
+	/**
+	 * @return true if every code address holds the same instruction
+	 * as in the snapshot
+	 */
+	boolean sameCode(Snapshot saved) {
+		return programSize == saved.programSize && Arrays.equals(opcodes, saved.opcodes)
+				&& Arrays.equals(args, saved.args);
+	}
+	
+	/**
+	 * Shares the code arrays of the snapshot, copying them only if there
+	 * are breakpoints to put in
+	 */
+	void restoreCode(Snapshot saved) {
+		opcodes = saved.opcodes;
+		ops = saved.ops;
+		args = saved.args;
+		sharedCode = true;
+		programSize = saved.programSize;
+		if (breakpoints != null) {
+			ownCode();
+			applyBreakpoints();
+		}
+	}
 
 }
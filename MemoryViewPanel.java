@@ -27,6 +27,7 @@ public class MemoryViewPanel {
 	private int lower = -1;
 	private int upper = -1;
 	private int previousColor = -1;
+	private boolean filled; // every field was set once
 	
 	public MemoryViewPanel(MachineModel m, int low, int up) {
 		model = m;
@@ -75,13 +76,23 @@ public class MemoryViewPanel {
 	}
 	
 	public void update(String arg) {
-		for(int i = lower; i < upper; i++) {
-			int val = model.getData(i);
-			dataDecimal[i-lower].setText("" + val);
-			String s = Integer.toHexString(val);
-			if(val < 0)
-				s = "-" + Integer.toHexString(-val);
-			dataHex[i-lower].setText(s.toUpperCase());
+		update(arg, null);
+	}
+	
+	/**
+	 * @param dirty the data addresses written since the last update, see
+	 * MachineModel.getDirtyData; null to show every address again
+	 */
+	public void update(String arg, int[] dirty) {
+		if(dirty == null || !filled) {
+			for(int i = lower; i < upper; i++) {
+				show(i);
+			}
+			filled = true;
+		} else {
+			for(int i : dirty) {
+				if(lower <= i && i < upper) show(i);
+			}
 		}
 		if(arg.equals("Clear")) {
 			if(lower <= previousColor && previousColor < upper) {
@@ -113,6 +124,15 @@ public class MemoryViewPanel {
 		}
 	}
 	
+	private void show(int i) {
+		int val = model.getData(i);
+		dataDecimal[i-lower].setText("" + val);
+		String s = Integer.toHexString(val);
+		if(val < 0)
+			s = "-" + Integer.toHexString(-val);
+		dataHex[i-lower].setText(s.toUpperCase());
+	}
+	
 	public static void main(String[] args) {
 		MachineModel model = new MachineModel(() -> {});
 		MemoryViewPanel panel = new MemoryViewPanel(model, 100, 500);
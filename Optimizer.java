@@ -0,0 +1,418 @@
+package project;
+
+import static project.Decoder.*;
+import static project.Instruction.*;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Rewrites a program into a shorter one that leaves the same data memory
+ * behind, see SimpleAssembler.setOptimize. Execution must start at
+ * address 0. Each pass
+ * <ul>
+ * <li>threads jumps that land on an unconditional jump to its target and
+ * drops jumps to the next instruction and NOPs,</li>
+ * <li>propagates constants through each basic block: arithmetic on a
+ * value just loaded with LOD # is folded into the LOD, a data address
+ * whose value is known is loaded as a constant, and a JMPZ on a known
+ * accumulator becomes a JUMP or disappears,</li>
+ * <li>drops a LOD or STO of the address whose value the accumulator
+ * already holds,</li>
+ * <li>drops the instructions control can never reach</li>
+ * </ul>
+ * and the passes repeat until nothing changes. The remaining jumps are
+ * relocated. A program with an indirect jump, whose target is in data
+ * memory, or with a jump outside the program is returned unchanged.
+ */
+public class Optimizer {
+
+	private static final int MAX_PASSES = 16;
+
+	private int removed;
+	private int folded;
+	private int threaded;
+
+	private int n;
+	private Instruction[] code;
+	private int[] ops;
+	private int[] targets; // absolute, -1 for instructions that are not jumps
+	private boolean[] deleted;
+	private boolean changed;
+
+	/**
+	 * @param program the instructions from address 0 on, null entries
+	 * are empty addresses
+	 * @return the optimized program, a copy even if nothing changed
+	 */
+	public Instruction[] optimize(Instruction[] program) {
+		Instruction[] result = program.clone();
+		if (!optimizable(result)) return result;
+		for (int pass = 0; pass < MAX_PASSES; pass++) {
+			Instruction[] next = pass(result);
+			if (next == null) break;
+			result = next;
+		}
+		return result;
+	}
+
+	/**
+	 * @return the instructions removed by all calls of optimize
+	 */
+	public int getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return the instructions replaced by a LOD # of a value known
+	 * when the program is optimized
+	 */
+	public int getFolded() {
+		return folded;
+	}
+
+	/**
+	 * @return the jumps sent straight to the end of a chain of jumps
+	 */
+	public int getThreaded() {
+		return threaded;
+	}
+
+	private static boolean isJump(int op) {
+		return !isFault(op) && (operationOf(op) == JUMP || operationOf(op) == JMPZ);
+	}
+
+	private static int target(int pc, int op, int arg) {
+		return modeOf(op) == DIRECT ? pc + arg : arg;
+	}
+
+	private static boolean optimizable(Instruction[] program) {
+		for (int i = 0; i < program.length; i++) {
+			int op = decode(program[i]);
+			if (!isJump(op)) continue;
+			if (modeOf(op) != DIRECT && modeOf(op) != IMMEDIATE) return false;
+			int target = target(i, op, program[i].arg);
+			if (target < 0 || target > program.length) return false;
+		}
+		return true;
+	}
+
+	static Instruction make(int operation, int mode, int arg) {
+		int opcode = 8 * operation + 2 * mode;
+		opcode += numOnes(opcode) % 2;
+		return new Instruction((byte) opcode, arg);
+	}
+
+	/**
+	 * @return the program after one pass, null if the pass changed nothing
+	 */
+	private Instruction[] pass(Instruction[] program) {
+		n = program.length;
+		code = program.clone();
+		ops = new int[n];
+		targets = new int[n];
+		deleted = new boolean[n];
+		changed = false;
+		for (int i = 0; i < n; i++) {
+			ops[i] = decode(code[i]);
+			targets[i] = isJump(ops[i]) ? target(i, ops[i], code[i].arg) : -1;
+		}
+		thread();
+		propagate(leaders());
+		removeUnreachable();
+		return changed ? relocate() : null;
+	}
+
+	private void delete(int i) {
+		deleted[i] = true;
+		removed++;
+		changed = true;
+	}
+
+	private void thread() {
+		for (int i = 0; i < n; i++) {
+			if (targets[i] < 0) continue;
+			int t = targets[i];
+			// a chain longer than the program is a loop of jumps
+			for (int hops = 0; t < n && ops[t] == (JUMP << 2 | modeOf(ops[t])) && hops < n; hops++) {
+				if (targets[t] == t) break;
+				t = targets[t];
+			}
+			if (t != targets[i]) {
+				targets[i] = t;
+				threaded++;
+				changed = true;
+			}
+			if (t == i + 1) delete(i);
+		}
+	}
+
+	private boolean[] leaders() {
+		boolean[] leader = new boolean[n + 1];
+		leader[0] = true;
+		for (int i = 0; i < n; i++) {
+			if (targets[i] >= 0) {
+				leader[targets[i]] = true;
+				leader[i + 1] = true;
+			}
+			else if (isFault(ops[i]) || ops[i] == HALT << 2) {
+				leader[i + 1] = true;
+			}
+		}
+		return leader;
+	}
+
+	private void propagate(boolean[] leader) {
+		Map<Integer, Integer> known = new HashMap<>();
+		boolean accKnown = false;
+		int acc = 0;
+		int accAddress = -1; // the data address known to hold acc
+		int previous = -1; // the last instruction kept in this block
+		for (int i = 0; i < n; i++) {
+			if (leader[i]) {
+				known.clear();
+				accKnown = false;
+				accAddress = -1;
+				previous = -1;
+			}
+			if (deleted[i]) continue;
+			int op = ops[i];
+			if (isFault(op)) {
+				known.clear();
+				accKnown = false;
+				accAddress = -1;
+				previous = -1;
+				continue;
+			}
+			int arg = code[i].arg;
+			int mode = modeOf(op);
+			if (accKnown && previous >= 0 && ops[previous] == (LOD << 2 | IMMEDIATE) && foldable(op, arg)) {
+				acc = apply(operationOf(op), acc, arg);
+				code[previous] = make(LOD, IMMEDIATE, acc);
+				accAddress = -1;
+				delete(i);
+				folded++;
+				continue;
+			}
+			switch (operationOf(op)) {
+			case NOP:
+				delete(i);
+				continue;
+			case NOT:
+				acc = acc == 0 ? 1 : 0;
+				accAddress = -1;
+				break;
+			case LOD:
+				if (mode == IMMEDIATE) {
+					accKnown = true;
+					acc = arg;
+					accAddress = -1;
+				}
+				else if (mode == DIRECT && accAddress == arg) {
+					delete(i);
+					continue;
+				}
+				else if (mode == DIRECT && known.containsKey(arg)) {
+					accKnown = true;
+					acc = known.get(arg);
+					accAddress = arg;
+					setConstant(i, acc);
+				}
+				else {
+					accKnown = false;
+					accAddress = mode == DIRECT ? arg : -1;
+				}
+				break;
+			case STO:
+				if (mode == DIRECT && accAddress == arg) {
+					delete(i);
+					continue;
+				}
+				if (mode == DIRECT) {
+					if (accKnown) known.put(arg, acc);
+					else known.remove(arg);
+					accAddress = arg;
+				}
+				else {
+					// any address may be written, but with the value of acc
+					known.clear();
+				}
+				break;
+			case ADD: case SUB: case MUL: case DIV:
+				if (mode == DIRECT && known.containsKey(arg) && !(operationOf(op) == DIV && known.get(arg) == 0)) {
+					acc = apply(operationOf(op), acc, known.get(arg));
+				}
+				else if (mode != IMMEDIATE || !foldable(op, arg)) {
+					accKnown = false;
+				}
+				else {
+					acc = apply(operationOf(op), acc, arg);
+				}
+				accAddress = -1;
+				break;
+			case AND:
+				if (mode == IMMEDIATE) {
+					accKnown = accKnown || arg == 0;
+					acc = acc != 0 && arg != 0 ? 1 : 0;
+				}
+				else if (accKnown && acc != 0) {
+					// AND only reads memory if acc is not 0
+					if (known.containsKey(arg)) acc = known.get(arg) != 0 ? 1 : 0;
+					else accKnown = false;
+				}
+				accAddress = -1;
+				break;
+			case CMPL: case CMPZ:
+				if (known.containsKey(arg)) {
+					int value = known.get(arg);
+					accKnown = true;
+					acc = (operationOf(op) == CMPL ? value < 0 : value == 0) ? 1 : 0;
+					setConstant(i, acc);
+				}
+				else accKnown = false;
+				accAddress = -1;
+				break;
+			case JMPZ:
+				if (accKnown && acc == 0) {
+					ops[i] = JUMP << 2 | mode;
+					changed = true;
+				}
+				else if (accKnown) {
+					delete(i);
+					continue;
+				}
+				break;
+			default:
+				break;
+			}
+			previous = i;
+		}
+	}
+
+	private void setConstant(int i, int value) {
+		code[i] = make(LOD, IMMEDIATE, value);
+		ops[i] = LOD << 2 | IMMEDIATE;
+		folded++;
+		changed = true;
+	}
+
+	private static boolean foldable(int op, int arg) {
+		switch (op) {
+		case NOT << 2:
+		case ADD << 2 | IMMEDIATE:
+		case SUB << 2 | IMMEDIATE:
+		case MUL << 2 | IMMEDIATE:
+		case AND << 2 | IMMEDIATE:
+			return true;
+		case DIV << 2 | IMMEDIATE:
+			return arg != 0;
+		default:
+			return false;
+		}
+	}
+
+	private static int apply(int operation, int acc, int value) {
+		switch (operation) {
+		case NOT: return acc == 0 ? 1 : 0;
+		case ADD: return acc + value;
+		case SUB: return acc - value;
+		case MUL: return acc * value;
+		case DIV: return acc / value;
+		case AND: return acc != 0 && value != 0 ? 1 : 0;
+		default: throw new IllegalArgumentException("Not an arithmetic operation: " + operation);
+		}
+	}
+
+	private void removeUnreachable() {
+		boolean[] reached = new boolean[n];
+		ArrayDeque<Integer> work = new ArrayDeque<>();
+		work.push(0);
+		while (!work.isEmpty()) {
+			int i = work.pop();
+			if (i >= n || reached[i]) continue;
+			reached[i] = true;
+			int op = ops[i];
+			if (deleted[i]) {
+				work.push(i + 1);
+			}
+			else if (isJump(op)) {
+				work.push(targets[i]);
+				if (operationOf(op) == JMPZ) work.push(i + 1);
+			}
+			else if (!isFault(op) && op != HALT << 2) {
+				work.push(i + 1);
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			if (!reached[i] && !deleted[i]) delete(i);
+		}
+	}
+
+	private Instruction[] relocate() {
+		int[] index = new int[n + 1];
+		int kept = 0;
+		for (int i = 0; i < n; i++) {
+			index[i] = kept;
+			if (!deleted[i]) kept++;
+		}
+		index[n] = kept;
+		Instruction[] result = new Instruction[kept];
+		for (int i = 0; i < n; i++) {
+			if (deleted[i]) continue;
+			if (targets[i] >= 0) {
+				int mode = modeOf(ops[i]);
+				int target = index[targets[i]];
+				result[index[i]] = make(operationOf(ops[i]), mode, mode == DIRECT ? target - index[i] : target);
+			}
+			else {
+				result[index[i]] = code[i];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Optimizes .pexe programs and reports what it saved
+	 * @param args the .pexe files, by default pexe/factorial.pexe,
+	 * pexe/qsort.pexe and pexe/merge.pexe, which are not kept with the
+	 * sources and have to be assembled first
+	 */
+	public static void main(String[] args) {
+		String[] paths = args.length > 0 ? args
+				: new String[] {"pexe/factorial.pexe", "pexe/qsort.pexe", "pexe/merge.pexe"};
+		for (String path : paths) {
+			File file = new File(path);
+			String name = file.getName();
+			MachineModel model = new MachineModel(() -> {});
+			String result = Loader.load(model, file);
+			if (!"success".equals(result)) {
+				System.out.println(name + ": " + result);
+				continue;
+			}
+			Snapshot loaded = model.snapshot();
+			Instruction[] program = new Instruction[model.getProgramSize() + 1];
+			for (int i = 0; i < program.length; i++) {
+				program[i] = model.getCode(i);
+			}
+			Optimizer optimizer = new Optimizer();
+			Instruction[] optimized = optimizer.optimize(program);
+			long steps = model.run(Long.MAX_VALUE).getSteps();
+			int[] data = model.getData();
+			model.restore(loaded);
+			for (int i = 0; i < program.length; i++) {
+				model.setCode(i, i < optimized.length ? optimized[i] : null);
+			}
+			long optimizedSteps = model.run(Long.MAX_VALUE).getSteps();
+			System.out.printf("%-12s %d -> %d instructions (%d removed, %d folded, %d threaded), "
+					+ "%d -> %d steps (%.1f%% saved), data %s%n", name,
+					program.length, optimized.length, optimizer.getRemoved(), optimizer.getFolded(),
+					optimizer.getThreaded(), steps, optimizedSteps,
+					100.0 * (steps - optimizedSteps) / steps,
+					Arrays.equals(data, model.getData()) ? "same" : "DIFFERENT");
+		}
+	}
+
+}
@@ -0,0 +1,152 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * Memory whose data memory is split into pages that are only allocated
+ * when something is written to them, for programs with a large but
+ * sparsely used address space. Reading a page that was never written
+ * gives 0 and allocates nothing. Code memory is an array of the given
+ * size as in Memory, since the interpreter indexes its predecoded form
+ * directly.
+ */
+class PagedMemory extends Memory {
+
+	private final int pageShift;
+	private final int pageMask;
+	private final int[][] pages;
+	private int allocated;
+
+	/**
+	 * @param pageSize the words per page, a power of two
+	 */
+	PagedMemory(int dataSize, int codeSize, int pageSize) {
+		super(dataSize, codeSize, false);
+		if (pageSize < 1 || Integer.bitCount(pageSize) != 1) {
+			throw new IllegalArgumentException("Page size must be a power of two");
+		}
+		pageShift = Integer.numberOfTrailingZeros(pageSize);
+		pageMask = pageSize - 1;
+		pages = new int[(int) (((long) dataSize + pageMask) >>> pageShift)][];
+	}
+
+	/**
+	 * @return the pages allocated so far
+	 */
+	int getAllocatedPages() {
+		return allocated;
+	}
+
+	private void check(int index) {
+		if (index < 0 || index >= getDataSize()) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + getDataSize());
+		}
+	}
+
+	/**
+	 * A copy of the whole data memory, every page allocated or not
+	 */
+	@Override
+	int[] getData() {
+		return getData(0, getDataSize());
+	}
+
+	@Override
+	int getData(int index) {
+		check(index);
+		int[] page = pages[index >>> pageShift];
+		int value = page == null ? 0 : page[index & pageMask];
+		if (checked) checkRead(index, value);
+		return value;
+	}
+
+	@Override
+	void setData(int index, int value) {
+		check(index);
+		int[] page = pages[index >>> pageShift];
+		if (checked) checkWrite(index, page == null ? 0 : page[index & pageMask], value);
+		if (tracking) markDirty(index);
+		if (page == null) {
+			page = pages[index >>> pageShift] = new int[pageMask + 1];
+			allocated++;
+		}
+		if (hashing) dataHash += ((long) value - page[index & pageMask]) * hashWeight(index);
+		page[index & pageMask] = value;
+		changedDataIndex = index;
+	}
+
+	@Override
+	int[] getData(int min, int max) {
+		int[] copy = new int[max - min];
+		for (int i = min; i < max; i++) {
+			int[] page = pages[i >>> pageShift];
+			if (page != null) copy[i - min] = page[i & pageMask];
+		}
+		return copy;
+	}
+
+	@Override
+	void clearData() {
+		Arrays.fill(pages, null);
+		allocated = 0;
+		dataHash = 0;
+		changedDataIndex = -1;
+		markAllDirty();
+	}
+
+	@Override
+	int getPageSize() {
+		return pageMask + 1;
+	}
+
+	@Override
+	int[][] copyPages() {
+		int[][] copy = new int[pages.length][];
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] != null) copy[p] = pages[p].clone();
+		}
+		return copy;
+	}
+
+	@Override
+	boolean samePages(int[][] saved) {
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == saved[p]) continue;
+			if (pages[p] == null ? !allZero(saved[p]) : saved[p] == null ? !allZero(pages[p])
+					: !Arrays.equals(pages[p], saved[p])) return false;
+		}
+		return true;
+	}
+
+	private static boolean allZero(int[] page) {
+		for (int value : page) {
+			if (value != 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	void restorePages(int[][] saved) {
+		allocated = 0;
+		for (int p = 0; p < pages.length; p++) {
+			if (saved[p] == null) pages[p] = null;
+			else {
+				if (pages[p] == null) pages[p] = saved[p].clone();
+				else System.arraycopy(saved[p], 0, pages[p], 0, saved[p].length);
+				allocated++;
+			}
+		}
+	}
+
+	@Override
+	void rehash() {
+		dataHash = 0;
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == null) continue;
+			for (int i = 0; i < pages[p].length; i++) {
+				dataHash += pages[p][i] * hashWeight((p << pageShift) + i);
+			}
+		}
+	}
+
+}
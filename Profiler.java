@@ -0,0 +1,130 @@
+package project;
+
+import static project.Decoder.*;
+import static project.Instruction.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Counts where a program spends its steps while the profiler is set
+ * with MachineModel.setProfiler: executions per code address, per
+ * operation and addressing mode, and for every JMPZ how often the
+ * jump was taken. The counters are plain long arrays indexed by code
+ * address and operation id (see Decoder).
+ */
+public class Profiler {
+
+	private static final String[] MODES = {"", "#", "@", "&"};
+
+	private long[] pcCounts = new long[Memory.CODE_SIZE];
+	private final long[] opCounts = new long[EMPTY]; // every id below EMPTY is a valid instruction
+	private long[] taken = new long[Memory.CODE_SIZE];
+	private long[] notTaken = new long[Memory.CODE_SIZE];
+	private long steps;
+
+	/**
+	 * Called by MachineModel.setProfiler so there is a counter for
+	 * every code address of the machine
+	 */
+	void fit(int codeSize) {
+		if (pcCounts.length >= codeSize) return;
+		pcCounts = Arrays.copyOf(pcCounts, codeSize);
+		taken = Arrays.copyOf(taken, codeSize);
+		notTaken = Arrays.copyOf(notTaken, codeSize);
+	}
+
+	/**
+	 * @param accumBefore the accumulator before the instruction, which
+	 * decides whether a JMPZ jumps
+	 */
+	void record(int pc, int op, int accumBefore) {
+		pcCounts[pc]++;
+		opCounts[op]++;
+		steps++;
+		if (operationOf(op) == JMPZ) {
+			if (accumBefore == 0) taken[pc]++;
+			else notTaken[pc]++;
+		}
+	}
+
+	public void reset() {
+		Arrays.fill(pcCounts, 0);
+		Arrays.fill(opCounts, 0);
+		Arrays.fill(taken, 0);
+		Arrays.fill(notTaken, 0);
+		steps = 0;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return how often the instruction at the code address executed
+	 */
+	public long getCount(int pc) {
+		return pcCounts[pc];
+	}
+
+	/**
+	 * @param operation the operation number, e.g. Instruction.LOD
+	 * @param mode the addressing mode, e.g. Decoder.IMMEDIATE
+	 * @return how often instructions with the operation and mode executed
+	 */
+	public long getOpCount(int operation, int mode) {
+		return opCounts[operation << 2 | mode];
+	}
+
+	/**
+	 * @return how often the JMPZ at the code address jumped
+	 */
+	public long getTaken(int pc) {
+		return taken[pc];
+	}
+
+	/**
+	 * @return how often the JMPZ at the code address fell through
+	 */
+	public long getNotTaken(int pc) {
+		return notTaken[pc];
+	}
+
+	/**
+	 * A listing of the executed instructions, most executed first, each
+	 * with its share of all steps and the branch counts of JMPZ, followed
+	 * by the counts per operation and addressing mode
+	 * @param model the machine, for the text of the instructions
+	 */
+	public String report(MachineModel model) {
+		StringBuilder buff = new StringBuilder();
+		buff.append("Steps: " + steps + "\n");
+		List<Integer> pcs = new ArrayList<>();
+		for (int pc = 0; pc < pcCounts.length; pc++) {
+			if (pcCounts[pc] > 0) pcs.add(pc);
+		}
+		pcs.sort((a, b) -> Long.compare(pcCounts[b], pcCounts[a]));
+		for (int pc : pcs) {
+			Instruction instr = model.getCode(pc);
+			buff.append(String.format("%4d  %-12s %12d %6.2f%%", pc,
+					instr == null ? "" : instr.getText().trim(), pcCounts[pc], 100.0 * pcCounts[pc] / steps));
+			if (taken[pc] + notTaken[pc] > 0) {
+				buff.append(String.format("  taken %d, not taken %d", taken[pc], notTaken[pc]));
+			}
+			buff.append("\n");
+		}
+		buff.append("By operation:\n");
+		List<Integer> ops = new ArrayList<>();
+		for (int op = 0; op < opCounts.length; op++) {
+			if (opCounts[op] > 0) ops.add(op);
+		}
+		ops.sort((a, b) -> Long.compare(opCounts[b], opCounts[a]));
+		for (int op : ops) {
+			buff.append(String.format("%-5s %12d %6.2f%%%n", MNEMONICS.get(operationOf(op)) + MODES[modeOf(op)],
+					opCounts[op], 100.0 * opCounts[op] / steps));
+		}
+		return buff.toString();
+	}
+
+}
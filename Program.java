@@ -0,0 +1,217 @@
+package project;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An assembled program on its own, not loaded into any machine: the
+ * code, decoded once, the initial data image, a name and a hash of the
+ * contents. Made by Loader.read and the assemblers. A Program never
+ * changes, so any number of machines on any threads can be bound to
+ * it with MachineModel.load(Program). Binding shares the code arrays
+ * instead of copying them; a machine only copies them when it changes
+ * its own code memory.
+ */
+public final class Program {
+
+	/**
+	 * The code padded to the size of a code memory, in the form Memory
+	 * keeps it. Memory shares these arrays and never writes them.
+	 */
+	static final class Code {
+		final short[] opcodes;
+		final byte[] ops;
+		final int[] args;
+		private volatile Verifier verifier; // for the data size last asked for
+
+		Code(short[] opcodes, byte[] ops, int[] args) {
+			this.opcodes = opcodes;
+			this.ops = ops;
+			this.args = args;
+		}
+
+		/**
+		 * Verifies the code once per data memory size
+		 * @param memory a memory whose code memory is this code
+		 */
+		Verifier verifier(Memory memory) {
+			Verifier checked = verifier;
+			if (checked != null && checked.getDataSize() == memory.getDataSize()) return checked;
+			checked = new Verifier(memory);
+			verifier = checked;
+			return checked;
+		}
+	}
+
+	private final String name;
+	private final short[] opcodes; // see Memory, one per instruction
+	private final int[] args;
+	private final int[] dataAddresses; // initial data, in the order it is written
+	private final int[] dataValues;
+	private final String hash;
+	private volatile Code code; // for the code size last asked for
+
+	private Program(String name, short[] opcodes, int[] args, int[] dataAddresses, int[] dataValues) {
+		this.name = name;
+		this.opcodes = opcodes;
+		this.args = args;
+		this.dataAddresses = dataAddresses;
+		this.dataValues = dataValues;
+		hash = hash(getBytes());
+	}
+
+	Program(String name, List<Instruction> code, List<Assembler.DataPair> data) {
+		this(name, opcodes(code), code.stream().mapToInt(instr -> instr.arg).toArray(),
+				data.stream().mapToInt(pair -> pair.address).toArray(),
+				data.stream().mapToInt(pair -> pair.value).toArray());
+	}
+
+	/**
+	 * @param code the instructions from code address 0 on
+	 * @param data the initial values of data addresses
+	 */
+	public static Program of(String name, Instruction[] code, Map<Integer, Integer> data) {
+		for (Instruction instr : code) {
+			if (instr == null) throw new IllegalArgumentException("A program has no empty code addresses");
+		}
+		return new Program(name, opcodes(Arrays.asList(code)),
+				Arrays.stream(code).mapToInt(instr -> instr.arg).toArray(),
+				data.keySet().stream().mapToInt(Integer::intValue).toArray(),
+				data.values().stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	private static short[] opcodes(List<Instruction> code) {
+		short[] opcodes = new short[code.size()];
+		for (int i = 0; i < opcodes.length; i++) {
+			// a negative opcode byte would end the code of a .pexe file
+			if (code.get(i).opcode < 0) throw new IllegalArgumentException("Opcode " + code.get(i).opcode + " at " + i + " cannot be stored");
+			opcodes[i] = code.get(i).opcode;
+		}
+		return opcodes;
+	}
+
+	private static String hash(byte[] bytes) {
+		try {
+			StringBuilder text = new StringBuilder();
+			for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+				text.append(String.format("%02x", b));
+			}
+			return text.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is missing from this Java runtime", e);
+		}
+	}
+
+	/**
+	 * @return the program as a .pexe file holds it: the opcodes, each
+	 * followed by its argument if it takes one, the byte -1, and the
+	 * address and value of each word of initial data
+	 */
+	public byte[] getBytes() {
+		int size = 1 + 8 * dataAddresses.length;
+		for (int i = 0; i < opcodes.length; i++) {
+			size += opcodes[i] < 24 ? 1 : 5;
+		}
+		ByteBuffer buff = ByteBuffer.allocate(size);
+		for (int i = 0; i < opcodes.length; i++) {
+			buff.put((byte) opcodes[i]);
+			if (opcodes[i] >= 24) buff.putInt(args[i]);
+		}
+		buff.put((byte) -1);
+		for (int i = 0; i < dataAddresses.length; i++) {
+			buff.putInt(dataAddresses[i]);
+			buff.putInt(dataValues[i]);
+		}
+		return buff.array();
+	}
+
+	/**
+	 * Decodes the code for a code memory of codeSize addresses, once
+	 * per size
+	 */
+	Code code(int codeSize) {
+		Code padded = code;
+		if (padded != null && padded.opcodes.length == codeSize) return padded;
+		if (opcodes.length > codeSize) {
+			throw new IllegalArgumentException("The program has " + opcodes.length
+					+ " instructions, code memory only " + codeSize);
+		}
+		short[] paddedOpcodes = Arrays.copyOf(opcodes, codeSize);
+		Arrays.fill(paddedOpcodes, opcodes.length, codeSize, Memory.NO_OPCODE);
+		byte[] ops = new byte[codeSize];
+		for (int i = 0; i < codeSize; i++) {
+			ops[i] = (byte) Decoder.decode(paddedOpcodes[i]);
+		}
+		padded = new Code(paddedOpcodes, ops, Arrays.copyOf(args, codeSize));
+		code = padded;
+		return padded;
+	}
+
+	int getDataAddress(int i) {
+		return dataAddresses[i];
+	}
+
+	int getDataValue(int i) {
+		return dataValues[i];
+	}
+
+	int getDataCount() {
+		return dataAddresses.length;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of instructions
+	 */
+	public int getLength() {
+		return opcodes.length;
+	}
+
+	public Instruction getCode(int index) {
+		return new Instruction((byte) opcodes[index], args[index]);
+	}
+
+	/**
+	 * @return the initial data, by address
+	 */
+	public Map<Integer, Integer> getData() {
+		Map<Integer, Integer> data = new LinkedHashMap<>();
+		for (int i = 0; i < dataAddresses.length; i++) {
+			data.put(dataAddresses[i], dataValues[i]);
+		}
+		return Collections.unmodifiableMap(data);
+	}
+
+	/**
+	 * @return the SHA-256 of getBytes() in hex, so two programs with the
+	 * same code and data have the same hash whatever their names
+	 */
+	public String getHash() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof Program && hash.equals(((Program) other).hash);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash.hashCode();
+	}
+
+	public String toString() {
+		return "Program [" + name + ", " + opcodes.length + " instructions, " + dataAddresses.length
+				+ " data, " + hash.substring(0, 12) + "]";
+	}
+
+}
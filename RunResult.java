@@ -0,0 +1,100 @@
+package project;
+
+/**
+ * The outcome of MachineModel.run
+ */
+public class RunResult {
+
+	public enum Reason {
+		HALTED, FAULT, STEP_LIMIT,
+		/** the machine came back to an earlier state, see MachineModel.setLoopCheckInterval */
+		NON_TERMINATING,
+		/** limits set on the MachineModel, see setTimeLimit, setWriteLimit and setAddressLimit */
+		TIME_LIMIT, WRITE_LIMIT, ADDRESS_LIMIT,
+		/** MachineModel.cancel was called */
+		CANCELLED,
+		/** a watchpoint fired, see MachineModel.getWatchEvent */
+		WATCHPOINT,
+		/** the next instruction has a breakpoint, see MachineModel.setBreakpoint */
+		BREAKPOINT
+	}
+
+	private final Reason reason;
+	private final long steps;
+	private final int pc;
+	private final Fault fault;
+	private final int faultDetail;
+	private final int faultLength;
+	private RuntimeException exception; // made on demand from the fault
+
+	RunResult(Reason reason, long steps, int pc) {
+		this.reason = reason;
+		this.steps = steps;
+		this.pc = pc;
+		this.fault = Fault.NONE;
+		this.faultDetail = 0;
+		this.faultLength = 0;
+	}
+
+	/**
+	 * @param faultLength see Fault.toException(int, int, int)
+	 */
+	RunResult(long steps, int pc, Fault fault, int faultDetail, int faultLength) {
+		this.reason = Reason.FAULT;
+		this.steps = steps;
+		this.pc = pc;
+		this.fault = fault;
+		this.faultDetail = faultDetail;
+		this.faultLength = faultLength;
+	}
+
+	public Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * @return the number of instructions executed, for a fault
+	 * not counting the instruction that faulted
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return the program counter when the run stopped: the HALT
+	 * instruction, the faulting instruction or the next instruction
+	 */
+	public int getPC() {
+		return pc;
+	}
+
+	/**
+	 * @return the fault of the instruction the run stopped at,
+	 * Fault.NONE unless the reason is FAULT
+	 */
+	public Fault getFault() {
+		return fault;
+	}
+
+	/**
+	 * @return the detail value of the fault, see Fault
+	 */
+	public int getFaultDetail() {
+		return faultDetail;
+	}
+
+	/**
+	 * @return the exception step() would have thrown for the fault,
+	 * null unless the reason is FAULT
+	 */
+	public RuntimeException getException() {
+		if (exception == null) exception = fault.toException(pc, faultDetail, faultLength);
+		return exception;
+	}
+
+	public String toString() {
+		return "RunResult [" + reason + ", steps " + steps + ", pc " + pc
+				+ (fault == Fault.NONE ? "" : ", " + fault + " " + faultDetail) + "]";
+	}
+
+}
@@ -0,0 +1,125 @@
+package project;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds the hot code of running machines without counting every step.
+ * A background thread reads the program counter each machine publishes
+ * from MachineModel.run (see MachineModel.setSampleInterval) at a fixed
+ * rate and counts the samples per code address. Machines that are not
+ * running are skipped. The counts can be exported as folded stacks,
+ * one "machine;instruction count" line per hot address, the input
+ * format of the usual flame graph tools.
+ */
+public class SamplingProfiler implements AutoCloseable {
+
+	private static class Sampled {
+		final MachineModel model;
+		final String name;
+		final long[] counts;
+
+		Sampled(MachineModel model, String name) {
+			this.model = model;
+			this.name = name;
+			counts = new long[model.getCodeSize()];
+		}
+	}
+
+	private final List<Sampled> machines = new CopyOnWriteArrayList<>();
+	private final long periodMicros;
+	private final int publishInterval;
+	private ScheduledExecutorService timer;
+	private long samples;
+
+	/**
+	 * @param periodMicros the time between two samples of every machine
+	 * @param publishInterval the steps between two publications of the
+	 * program counter, set on every machine added
+	 */
+	public SamplingProfiler(long periodMicros, int publishInterval) {
+		if (periodMicros < 1) throw new IllegalArgumentException("Period must be at least 1");
+		if (publishInterval < 1) throw new IllegalArgumentException("Interval must be at least 1");
+		this.periodMicros = periodMicros;
+		this.publishInterval = publishInterval;
+	}
+
+	/**
+	 * Starts sampling the machine. Must be called before the machine runs
+	 * since it sets the sample interval of the model.
+	 * @param name the name of the machine in the export
+	 */
+	public void add(MachineModel model, String name) {
+		model.setSampleInterval(publishInterval);
+		machines.add(new Sampled(model, name));
+	}
+
+	public synchronized void start() {
+		if (timer != null) return;
+		timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "SamplingProfiler");
+			t.setDaemon(true);
+			return t;
+		});
+		timer.scheduleAtFixedRate(this::sample, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+	}
+
+	public synchronized void stop() {
+		if (timer == null) return;
+		timer.shutdownNow();
+		timer = null;
+	}
+
+	private synchronized void sample() {
+		for (Sampled m : machines) {
+			int pc = m.model.getPublishedPC();
+			if (pc >= 0 && pc < m.counts.length) {
+				m.counts[pc]++;
+				samples++;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of samples taken of running machines
+	 */
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return the samples per code address of the machine, empty if
+	 * it was never added
+	 */
+	public synchronized long[] getHistogram(MachineModel model) {
+		for (Sampled m : machines) {
+			if (m.model == model) return m.counts.clone();
+		}
+		return new long[model.getCodeSize()];
+	}
+
+	/**
+	 * Writes the samples as folded stacks: the machine name and the
+	 * address and text of the instruction, separated by ';', and the
+	 * number of samples
+	 */
+	public synchronized void writeFolded(Appendable out) throws IOException {
+		for (Sampled m : machines) {
+			for (int pc = 0; pc < m.counts.length; pc++) {
+				if (m.counts[pc] == 0) continue;
+				Instruction instr = m.model.getCode(pc);
+				String text = instr == null ? "" : " " + instr.getText().replaceAll("\\s+", " ");
+				out.append(m.name.replace(';', '_') + ";" + pc + text + " " + m.counts[pc] + "\n");
+			}
+		}
+	}
+
+	public void close() {
+		stop();
+	}
+
+}
@@ -8,6 +8,7 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -18,11 +19,18 @@ import java.util.stream.Stream;
 public class SimpleAssembler implements Assembler {
 
 	private boolean readingCode = true;
-	private int noArgCount = 0;
+	private boolean optimize = false;
+	
+	/**
+	 * @param optimize true to run the Optimizer over the code before it is
+	 * encoded
+	 */
+	public void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
 	
 	Instruction makeCode(String[] parts) {
 		if (noArgument.contains(parts[0])) {
-			noArgCount++;
 			int opPart = 8 * Instruction.OPCODES.get(parts[0]);
 			opPart += Instruction.numOnes(opPart) % 2;
 			return new Instruction((byte) opPart, 0);
@@ -53,9 +61,13 @@ public class SimpleAssembler implements Assembler {
 		return new DataPair(Integer.parseInt(parts[0], 16), Integer.parseInt(parts[1], 16));
 	}
 	
-	@Override
-	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
+	/**
+	 * Assembles the source file into a Program instead of a file
+	 * @return the program, null if the file cannot be read
+	 */
+	public Program assemble(String inputFileName) {
 		Map<Boolean, List<String>> lists = null;
+		readingCode = true;
 		try (Stream<String> lines = Files.lines(Paths.get(inputFileName))) {
 			lists = lines
 					.filter(line -> line.trim().length() > 0)
@@ -70,6 +82,7 @@ public class SimpleAssembler implements Assembler {
 					// for checking the code
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
 		}
 		lists.get(false).remove("DATA");
 		
@@ -77,27 +90,23 @@ public class SimpleAssembler implements Assembler {
 				.map(line -> line.split("\\s+"))
 				.map(this::makeCode) // note how we use an instance method of this class
 				.collect(Collectors.toList());
+		if (optimize) {
+			outputCode = Arrays.asList(new Optimizer().optimize(outputCode.toArray(new Instruction[0])));
+		}
 		List<DataPair> outputData = lists.get(false).stream()
 				.map(line -> line.split("\\s+"))
 				.map(this::makeData) // note how we use an instance method of this class
 				.collect(Collectors.toList());
-		
-		int bytesNeeded = noArgCount + 5*(outputCode.size()-noArgCount)+1+8*(outputData.size());
-		ByteBuffer buff = ByteBuffer.allocate(bytesNeeded);
-		outputCode.stream()
-		.forEach(instr -> {
-			buff.put(instr.opcode);
-			if(!Instruction.noArgument(instr)) {
-				buff.putInt(instr.arg);
-			}
-		});
-		buff.put((byte) - 1);
-		outputData.stream()
-		.forEach(pair -> {
-			buff.putInt(pair.address);
-			buff.putInt(pair.value);
-		});
-		buff.rewind();
+		String name = Paths.get(inputFileName).getFileName().toString();
+		if (name.endsWith(".pasm")) name = name.substring(0, name.length() - 5);
+		return new Program(name, outputCode, outputData);
+	}
+	
+	@Override
+	public int assemble(String inputFileName, String outputFileName, StringBuilder error) {
+		Program program = assemble(inputFileName);
+		if (program == null) return -1;
+		ByteBuffer buff = ByteBuffer.wrap(program.getBytes());
 		boolean append = false;
 		try (FileChannel wChannel =
 				new FileOutputStream(new File(outputFileName), append).getChannel()){
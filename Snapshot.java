@@ -0,0 +1,68 @@
+package project;
+
+/**
+ * A copy of the complete state of a MachineModel: accumulator, program
+ * counter, data memory and code memory. Taken by MachineModel.snapshot
+ * and put back by MachineModel.restore, which only copies arrays, so a
+ * program can be reset and run again without going back to the file.
+ * A snapshot is never changed and can be restored into any number of
+ * models, also from different threads.
+ */
+public class Snapshot {
+
+	final int accum;
+	final int pc;
+	final int dataSize;
+	final int pageSize;
+	final int[][] pages; // data memory in pages of pageSize words, null pages hold zeros
+	final short[] opcodes; // see Memory
+	final byte[] ops;
+	final int[] args;
+	final int programSize;
+
+	Snapshot(int accum, int pc, int dataSize, int pageSize, int[][] pages,
+			short[] opcodes, byte[] ops, int[] args, int programSize) {
+		this.accum = accum;
+		this.pc = pc;
+		this.dataSize = dataSize;
+		this.pageSize = pageSize;
+		this.pages = pages;
+		this.opcodes = opcodes;
+		this.ops = ops;
+		this.args = args;
+		this.programSize = programSize;
+	}
+
+	public int getAccum() {
+		return accum;
+	}
+
+	public int getPC() {
+		return pc;
+	}
+
+	public int getData(int index) {
+		if (index < 0 || index >= dataSize) {
+			throw new ArrayIndexOutOfBoundsException("Index " + index + " out of bounds for length " + dataSize);
+		}
+		int[] page = pages[index / pageSize];
+		return page == null ? 0 : page[index % pageSize];
+	}
+
+	public int getDataSize() {
+		return dataSize;
+	}
+
+	public int getCodeSize() {
+		return opcodes.length;
+	}
+
+	public Instruction getCode(int index) {
+		return Memory.instruction(opcodes[index], args[index]);
+	}
+
+	public int getProgramSize() {
+		return programSize;
+	}
+
+}
@@ -0,0 +1,85 @@
+package project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Basic block state of the tiered engine. Blocks start out interpreted;
+ * every time the interpreter arrives at the first instruction of a block
+ * its entry count goes up and when the count reaches the threshold the
+ * block alone is compiled by BytecodeCompiler. A compiled block returns
+ * to the interpreter at every jump that leaves the block, including
+ * every indirect (@ and &) jump whose target is not the block itself.
+ */
+class Tiering {
+
+	private final Memory memory;
+	private final int threshold;
+	private final int[] blockAt; // block number for the first address of a block, -1 elsewhere
+	private final int[] starts;
+	private final int[] ends;
+	private final long[] entries;
+	private final CompiledCode[] code;
+	private final long[] compileNanos;
+	private final boolean[] failed;
+
+	Tiering(Memory memory, int threshold) {
+		this.memory = memory;
+		this.threshold = threshold;
+		int end = BytecodeCompiler.programEnd(memory);
+		boolean[] leader = BytecodeCompiler.leaders(memory, 0, end);
+		blockAt = new int[end];
+		Arrays.fill(blockAt, -1);
+		List<Integer> blockStarts = new ArrayList<>();
+		for (int pc = 0; pc < end; pc++) {
+			if (leader[pc]) {
+				blockAt[pc] = blockStarts.size();
+				blockStarts.add(pc);
+			}
+		}
+		int count = blockStarts.size();
+		starts = new int[count];
+		ends = new int[count];
+		for (int b = 0; b < count; b++) {
+			starts[b] = blockStarts.get(b);
+			ends[b] = b + 1 < count ? blockStarts.get(b + 1) : end;
+		}
+		entries = new long[count];
+		code = new CompiledCode[count];
+		compileNanos = new long[count];
+		failed = new boolean[count];
+	}
+
+	/**
+	 * Called when execution arrives at code address pc
+	 * @return the compiled block starting at pc, or null if pc does not
+	 * start a block or the block is still interpreted
+	 */
+	CompiledCode enter(int pc) {
+		if (pc < 0 || pc >= blockAt.length) return null;
+		int b = blockAt[pc];
+		if (b < 0) return null;
+		if (code[b] == null && !failed[b] && ++entries[b] >= threshold) {
+			long start = System.nanoTime();
+			try {
+				code[b] = BytecodeCompiler.compile(memory, starts[b], ends[b]);
+			} catch (IllegalStateException e) {
+				failed[b] = true;
+			}
+			compileNanos[b] = System.nanoTime() - start;
+		}
+		return code[b];
+	}
+
+	List<BlockTier> getBlockTiers() {
+		List<BlockTier> list = new ArrayList<>();
+		for (int b = 0; b < starts.length; b++) {
+			BlockTier.Tier tier = code[b] != null ? BlockTier.Tier.COMPILED
+					: failed[b] ? BlockTier.Tier.NOT_COMPILABLE : BlockTier.Tier.INTERPRETED;
+			list.add(new BlockTier(starts[b], ends[b], entries[b], tier, compileNanos[b]));
+		}
+		return list;
+	}
+
+}
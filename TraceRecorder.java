@@ -0,0 +1,193 @@
+package project;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Records every instruction a MachineModel executes while the recorder
+ * is set with MachineModel.setTraceRecorder. Each step is a fixed size
+ * record of program counter, operation id (see Decoder), accumulator and
+ * program counter after the step, and the data write if there was one
+ * (address, old value, new value). Records go into a ring buffer
+ * allocated once. Without a file the ring keeps the latest records;
+ * with a file the ring is written to it in one block through a
+ * FileChannel every time it fills up, so the whole run is kept.
+ *
+ * Instructions that fault are not executed and not recorded. The state
+ * of the machine at any recorded step can be reconstructed with
+ * TraceReplayer. A change to the machine that is not a step, such as
+ * MachineModel.setData, starts the recording over from the new state. Recording costs about as much as the instruction it
+ * records, so a traced run is at most about three times slower than
+ * calling step() without a recorder (see Benchmark).
+ */
+public class TraceRecorder implements AutoCloseable {
+
+	static final int RECORD_INTS = 7, RECORD_SIZE = 4 * RECORD_INTS;
+	static final int PC = 0, OP = 4, ACCUM = 8, NEXT_PC = 12, ADDRESS = 16, OLD = 20, NEW = 24;
+
+	private final int capacity;
+	private final int[] ring;
+	private final ByteBuffer block; // ring contents on their way to the file
+	private final FileChannel channel;
+	private int next; // index in ring of the next record
+	private long recorded;
+	private long spilled; // records written to the file
+	private Snapshot initial;
+
+	/**
+	 * A ring buffer recorder that keeps the latest records
+	 * @param capacity the number of records kept
+	 */
+	public TraceRecorder(int capacity) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+		this.capacity = capacity;
+		ring = new int[capacity * RECORD_INTS];
+		block = null;
+		channel = null;
+	}
+
+	/**
+	 * A recorder that keeps every record, spilling to a file
+	 * @param capacity the number of records buffered between writes
+	 * @param file the file to write, replaced if it exists
+	 */
+	public TraceRecorder(int capacity, Path file) throws IOException {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+		this.capacity = capacity;
+		ring = new int[capacity * RECORD_INTS];
+		block = ByteBuffer.allocateDirect(capacity * RECORD_SIZE);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Called by MachineModel.setTraceRecorder and after changes that are
+	 * not steps: forgets earlier records and remembers the state the
+	 * recording starts from
+	 */
+	void start(Snapshot state) {
+		initial = state;
+		next = 0;
+		recorded = 0;
+		spilled = 0;
+		if (channel != null) {
+			try {
+				channel.truncate(0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * @param address the data address written, -1 if there was no write
+	 */
+	void record(int pc, int op, int accum, int nextPC, int address, int oldValue, int newValue) {
+		if (channel != null && recorded - spilled == capacity) flush();
+		int at = next;
+		next += RECORD_INTS;
+		if (next == ring.length) next = 0;
+		ring[at] = pc;
+		ring[at + 1] = op;
+		ring[at + 2] = accum;
+		ring[at + 3] = nextPC;
+		ring[at + 4] = address;
+		ring[at + 5] = oldValue;
+		ring[at + 6] = newValue;
+		recorded++;
+	}
+
+	/**
+	 * Writes the buffered records to the file, if there is one
+	 */
+	public void flush() {
+		if (channel == null) return;
+		try {
+			while (spilled < recorded) {
+				int from = (int) (spilled % capacity);
+				int count = (int) Math.min(recorded - spilled, capacity - from);
+				block.clear();
+				block.asIntBuffer().put(ring, from * RECORD_INTS, count * RECORD_INTS);
+				block.limit(count * RECORD_SIZE);
+				long position = spilled * RECORD_SIZE;
+				while (block.hasRemaining()) {
+					position += channel.write(block, position);
+				}
+				spilled += count;
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Copies records, starting with the one of step first, into dst
+	 * @return the number of records copied, as many as fit in dst
+	 * but not beyond the last record
+	 */
+	int read(long first, ByteBuffer dst) {
+		if (first < getFirstStep() || first > recorded) {
+			throw new IllegalArgumentException("Step " + first + " is not in the trace");
+		}
+		int count = (int) Math.min(dst.remaining() / RECORD_SIZE, recorded - first);
+		int start = dst.position();
+		if (first < spilled) {
+			count = (int) Math.min(count, spilled - first);
+			ByteBuffer view = dst.duplicate();
+			view.limit(start + count * RECORD_SIZE);
+			try {
+				long position = first * RECORD_SIZE;
+				while (view.hasRemaining()) {
+					int n = channel.read(view, position);
+					if (n < 0) throw new IOException("Trace file is truncated");
+					position += n;
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		else {
+			count = (int) Math.min(count, capacity - first % capacity);
+			int from = (int) (first % capacity) * RECORD_INTS;
+			for (int i = 0; i < count * RECORD_INTS; i++) {
+				dst.putInt(start + 4 * i, ring[from + i]);
+			}
+		}
+		dst.position(start + count * RECORD_SIZE);
+		return count;
+	}
+
+	/**
+	 * @return the number of steps recorded
+	 */
+	public long getSteps() {
+		return recorded;
+	}
+
+	/**
+	 * @return the first step that can still be read: 0 with a file,
+	 * otherwise the oldest step still in the ring
+	 */
+	public long getFirstStep() {
+		if (channel != null) return 0;
+		return Math.max(0, recorded - capacity);
+	}
+
+	/**
+	 * @return the state of the machine when recording started
+	 */
+	public Snapshot getInitialState() {
+		return initial;
+	}
+
+	public void close() throws IOException {
+		if (channel == null) return;
+		flush();
+		channel.close();
+	}
+
+}
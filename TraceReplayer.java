@@ -0,0 +1,107 @@
+package project;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads back the steps recorded by a TraceRecorder and reconstructs the
+ * state of the machine at any of them. The state after a number of
+ * steps is the state the recording started from with the data writes
+ * of those steps applied, and the accumulator and program counter the
+ * last of them left; nothing is executed again.
+ */
+public class TraceReplayer {
+
+	private static final int BLOCK = 4096; // records read at a time
+
+	private final TraceRecorder trace;
+	private final ByteBuffer record = ByteBuffer.allocate(TraceRecorder.RECORD_SIZE);
+
+	public TraceReplayer(TraceRecorder trace) {
+		this.trace = trace;
+	}
+
+	public long getSteps() {
+		return trace.getSteps();
+	}
+
+	/**
+	 * @return the code address of the instruction executed in step
+	 */
+	public int getPC(long step) {
+		return read(step).getInt(TraceRecorder.PC);
+	}
+
+	/**
+	 * @return the operation id (see Decoder) of the instruction executed in step
+	 */
+	public int getOp(long step) {
+		return read(step).getInt(TraceRecorder.OP);
+	}
+
+	/**
+	 * @return the accumulator after step
+	 */
+	public int getAccum(long step) {
+		return read(step).getInt(TraceRecorder.ACCUM);
+	}
+
+	/**
+	 * @return the data address written in step, -1 if there was no write
+	 */
+	public int getWriteAddress(long step) {
+		return read(step).getInt(TraceRecorder.ADDRESS);
+	}
+
+	private ByteBuffer read(long step) {
+		if (step >= trace.getSteps()) throw new IllegalArgumentException("Step " + step + " is not in the trace");
+		record.clear();
+		trace.read(step, record);
+		return record;
+	}
+
+	/**
+	 * Reconstructs the machine after the given number of recorded steps,
+	 * so stateAt(0) is the state recording started from. Needs every
+	 * record up to steps, so a ring buffer recorder must not have wrapped.
+	 * @param steps the number of steps, at most getSteps()
+	 * @return the state, ready for MachineModel.restore
+	 */
+	public Snapshot stateAt(long steps) {
+		if (steps < 0 || steps > trace.getSteps()) {
+			throw new IllegalArgumentException("Step " + steps + " is not in the trace");
+		}
+		if (trace.getFirstStep() > 0) {
+			throw new IllegalStateException("The start of the trace was overwritten");
+		}
+		Snapshot initial = trace.getInitialState();
+		int pageSize = initial.pageSize;
+		int[][] pages = new int[initial.pages.length][];
+		for (int p = 0; p < pages.length; p++) {
+			if (initial.pages[p] != null) pages[p] = initial.pages[p].clone();
+		}
+		int accum = initial.accum;
+		int pc = initial.pc;
+		ByteBuffer block = ByteBuffer.allocate(BLOCK * TraceRecorder.RECORD_SIZE);
+		long step = 0;
+		while (step < steps) {
+			block.clear();
+			block.limit((int) Math.min(BLOCK, steps - step) * TraceRecorder.RECORD_SIZE);
+			int count = trace.read(step, block);
+			for (int i = 0; i < count; i++) {
+				int at = i * TraceRecorder.RECORD_SIZE;
+				int address = block.getInt(at + TraceRecorder.ADDRESS);
+				if (address >= 0) {
+					int[] page = pages[address / pageSize];
+					if (page == null) page = pages[address / pageSize] = new int[pageSize];
+					page[address % pageSize] = block.getInt(at + TraceRecorder.NEW);
+				}
+				accum = block.getInt(at + TraceRecorder.ACCUM);
+				pc = block.getInt(at + TraceRecorder.NEXT_PC);
+			}
+			step += count;
+		}
+		return new Snapshot(accum, pc, initial.dataSize, pageSize, pages,
+				initial.opcodes, initial.ops, initial.args, initial.programSize);
+	}
+
+}
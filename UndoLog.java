@@ -0,0 +1,146 @@
+package project;
+
+import java.util.Arrays;
+
+/**
+ * Lets a MachineModel go back in time, see MachineModel.setUndoLog and
+ * rewind. For each step the log keeps what the step destroyed: program
+ * counter, accumulator and, if the step wrote data memory, the address
+ * and the value it overwrote, in four int ring buffers allocated once.
+ * Undoing a step puts these back, so rewinding N steps costs O(N).
+ * Every snapshotInterval steps the log also keeps a Snapshot, so going
+ * far back restores the nearest later snapshot and only undoes the
+ * steps between it and the target.
+ */
+public class UndoLog {
+
+	private final int capacity;
+	private final int snapshotInterval;
+	private final int[] pcs;
+	private final int[] accums;
+	private final int[] addresses; // -1 if the step wrote nothing
+	private final int[] oldValues;
+	private final Snapshot[] snapshots;
+	private final long[] snapshotSteps;
+	private long steps; // steps recorded, the number of the next one
+	private long first; // the oldest step that can be undone
+
+	/**
+	 * @param capacity the most steps that can be undone
+	 * @param snapshotInterval the steps between two snapshots; a snapshot
+	 * costs a copy of memory, so this trades memory and time while
+	 * recording against the time to rewind far
+	 */
+	public UndoLog(int capacity, int snapshotInterval) {
+		if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+		if (snapshotInterval < 1) throw new IllegalArgumentException("Interval must be at least 1");
+		this.capacity = capacity;
+		this.snapshotInterval = snapshotInterval;
+		pcs = new int[capacity];
+		accums = new int[capacity];
+		addresses = new int[capacity];
+		oldValues = new int[capacity];
+		snapshots = new Snapshot[capacity / snapshotInterval + 2];
+		snapshotSteps = new long[snapshots.length];
+	}
+
+	/**
+	 * Forgets every step, when the machine was changed from outside
+	 */
+	void reset() {
+		steps = 0;
+		first = 0;
+		Arrays.fill(snapshots, null);
+	}
+
+	/**
+	 * @return true if the state before the next step should be saved
+	 * with addSnapshot
+	 */
+	boolean wantsSnapshot() {
+		return steps % snapshotInterval == 0;
+	}
+
+	void addSnapshot(Snapshot state) {
+		int slot = (int) (steps / snapshotInterval % snapshots.length);
+		snapshots[slot] = state;
+		snapshotSteps[slot] = steps;
+	}
+
+	/**
+	 * Records the state a step is about to change
+	 * @param address the data address the step writes, -1 for none
+	 * @param oldValue the value at address before the write
+	 */
+	void record(int pc, int accum, int address, int oldValue) {
+		int i = (int) (steps % capacity);
+		pcs[i] = pc;
+		accums[i] = accum;
+		addresses[i] = address;
+		oldValues[i] = oldValue;
+		steps++;
+		if (steps - first > capacity) first = steps - capacity;
+	}
+
+	/**
+	 * @return the steps recorded since the log was set or reset, less
+	 * the steps rewound
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * @return how many steps can be undone
+	 */
+	public long getUndoable() {
+		return steps - first;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	int getPC(long step) {
+		return pcs[(int) (step % capacity)];
+	}
+
+	int getAccum(long step) {
+		return accums[(int) (step % capacity)];
+	}
+
+	int getAddress(long step) {
+		return addresses[(int) (step % capacity)];
+	}
+
+	int getOldValue(long step) {
+		return oldValues[(int) (step % capacity)];
+	}
+
+	/**
+	 * @return the snapshot to start from when rewinding to the state
+	 * before step target, null if undoing step by step is as quick
+	 */
+	Snapshot snapshotFor(long target) {
+		long step = (target + snapshotInterval - 1) / snapshotInterval * snapshotInterval;
+		if (steps - step < snapshotInterval) return null;
+		int slot = (int) (step / snapshotInterval % snapshots.length);
+		if (snapshots[slot] == null || snapshotSteps[slot] != step) return null;
+		return snapshots[slot];
+	}
+
+	/**
+	 * @return the step the snapshot from snapshotFor was taken before
+	 */
+	long stepOf(long target) {
+		return (target + snapshotInterval - 1) / snapshotInterval * snapshotInterval;
+	}
+
+	/**
+	 * Drops the steps from target on, after they were undone
+	 */
+	void truncate(long target) {
+		steps = target;
+	}
+
+}
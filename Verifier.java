@@ -0,0 +1,124 @@
+package project;
+
+import static project.Decoder.*;
+import static project.Instruction.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks the program in code memory once, see MachineModel.verify, which
+ * Loader.load calls. The verifier proves that every direct data address
+ * is inside data memory and every JUMP or JMPZ with a constant target
+ * lands on an instruction, and lists a clear message for each
+ * instruction where that fails. Only the instructions with indirect
+ * operands (modes @ and &) still need checks at run time. If there are
+ * no problems and no indirect jumps, control never leaves the program,
+ * so the interpreter can run it without range checks on the program
+ * counter and direct operands.
+ */
+public class Verifier {
+
+	private final List<String> problems = new ArrayList<>();
+	private final List<Integer> checked = new ArrayList<>();
+	private final boolean verified;
+	private final int end;
+	private final int dataSize;
+
+	Verifier(Memory memory) {
+		dataSize = memory.getDataSize();
+		int codeSize = memory.getCodeSize();
+		end = BytecodeCompiler.programEnd(memory);
+		boolean indirectJump = false;
+		for (int pc = 0; pc < end; pc++) {
+			int op = memory.getCodeOp(pc);
+			if (op == EMPTY) continue;
+			if (isFault(op)) {
+				problem(memory, pc, op == BAD_PARITY ? "the opcode has a bad parity bit"
+						: op == BAD_OPCODE ? "the opcode is not an instruction"
+						: "the operation does not take this addressing mode");
+				continue;
+			}
+			int operation = operationOf(op);
+			int mode = modeOf(op);
+			int arg = memory.getArg(pc);
+			if (BytecodeCompiler.isJump(op)) {
+				if (mode >= INDIRECT) {
+					checked.add(pc);
+					indirectJump = true;
+				}
+				else {
+					int target = BytecodeCompiler.staticTarget(pc, op, arg);
+					if (target < 0 || target >= codeSize) {
+						problem(memory, pc, "the target " + target + " is outside code memory 0.." + (codeSize - 1));
+					}
+					else if (memory.getCodeOp(target) == EMPTY) {
+						problem(memory, pc, "there is no instruction at the target " + target);
+					}
+				}
+			}
+			else if (operation >= LOD) {
+				if (mode == INDIRECT) {
+					checked.add(pc);
+				}
+				else if (mode == DIRECT && (arg < 0 || arg >= dataSize)) {
+					problem(memory, pc, "the data address " + arg + " is outside data memory 0.." + (dataSize - 1));
+				}
+			}
+			if (operation != HALT && operation != JUMP && (pc + 1 >= codeSize || memory.getCodeOp(pc + 1) == EMPTY)) {
+				problem(memory, pc, "execution runs on past the end of the program");
+			}
+		}
+		verified = problems.isEmpty() && !indirectJump;
+	}
+
+	private void problem(Memory memory, int pc, String text) {
+		Instruction instr = memory.getCode(pc);
+		problems.add("Code address " + pc + " (" + instr.getText().replaceAll("\\s+", " ").trim() + "): " + text);
+	}
+
+	/**
+	 * @return the code address after the last instruction
+	 */
+	int getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the size of the data memory the program was checked for
+	 */
+	int getDataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * @return true if the program can run without range checks on the
+	 * program counter and direct data addresses
+	 */
+	public boolean isVerified() {
+		return verified;
+	}
+
+	/**
+	 * @return a message for each instruction that will fault or
+	 * run into empty code memory when it executes
+	 */
+	public List<String> getProblems() {
+		return Collections.unmodifiableList(problems);
+	}
+
+	/**
+	 * @return the code addresses of the instructions with an indirect
+	 * operand, which are range checked at run time
+	 */
+	public List<Integer> getChecked() {
+		return Collections.unmodifiableList(checked);
+	}
+
+	public String toString() {
+		return "Verifier [" + (verified ? "verified" : "not verified") + ", " + problems.size() + " problems, "
+				+ checked.size() + " checked]";
+	}
+
+}
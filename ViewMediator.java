@@ -4,6 +4,7 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Container;
 import java.awt.GridLayout;
+import java.util.function.Supplier;
 
 import javax.swing.JFrame;
 import javax.swing.JMenuBar;
@@ -15,6 +16,9 @@ import project.IllegalInstructionException;
 import project.MachineModel;
 import project.Memory;
 import project.ParityCheckException;
+import project.RunResult;
+import project.Snapshot;
+import project.UndoLog;
 
 public class ViewMediator {
 
@@ -30,6 +34,11 @@ public class ViewMediator {
 	private States currentState = States.NOTHING_LOADED;
 	private FilesMgr filesMgr;
 	private MenuBarBuilder menuBuilder;
+	private Snapshot loaded; // the machine just after loading, for reload
+	private static final int LOOP_CHECK_INTERVAL = 1000;
+	private static final long RUN_TIME_LIMIT = 10_000_000_000L; // nanoseconds
+	private static final int UNDO_STEPS = 1 << 16;
+	private static final int UNDO_SNAPSHOT_INTERVAL = 1024;
 	
 	public MachineModel getModel() {
 		return model;
@@ -37,6 +46,10 @@ public class ViewMediator {
 
 	public void setModel(MachineModel model) {
 		this.model = model;
+		model.setLoopCheckInterval(LOOP_CHECK_INTERVAL);
+		model.setTimeLimit(RUN_TIME_LIMIT);
+		model.setDirtyTracking(true);
+		model.setUndoLog(new UndoLog(UNDO_STEPS, UNDO_SNAPSHOT_INTERVAL));
 	}
 
 	public JFrame getFrame() {
@@ -58,7 +71,7 @@ public class ViewMediator {
 		stepControl = new StepControl(this);
 		filesMgr = new FilesMgr(this);
 		filesMgr.initialize();
-		codeViewPanel = new CodeViewPanel(model);
+		codeViewPanel = new CodeViewPanel(model, this);
 		memoryViewPanel1 = new MemoryViewPanel(model, 0, 160);
 		memoryViewPanel2 = new MemoryViewPanel(model, 160, Memory.DATA_SIZE/2);
 		memoryViewPanel3 = new MemoryViewPanel(model, Memory.DATA_SIZE/2, Memory.DATA_SIZE);
@@ -96,15 +109,18 @@ public class ViewMediator {
 	
 	private void notify(String str) {
 		codeViewPanel.update(str);
-		memoryViewPanel1.update(str);
-		memoryViewPanel2.update(str);
-		memoryViewPanel3.update(str);
+		int[] dirty = model.getDirtyData();
+		model.clearDirty();
+		memoryViewPanel1.update(str, dirty);
+		memoryViewPanel2.update(str, dirty);
+		memoryViewPanel3.update(str, dirty);
 		controlPanel.update();
 		processorPanel.update();
 	}
 
 	
 	public void clear() {
+		loaded = null;
 		model.clear();
 		setCurrentState(States.NOTHING_LOADED);
 		currentState.enter();
@@ -120,8 +136,13 @@ public class ViewMediator {
 	
 	public void reload() {
 		stepControl.setAutoStepOn(false);
-		clear();
-		filesMgr.finalLoad_ReloadStep();
+		if (loaded != null) {
+			model.restore(loaded);
+			makeReady("Load Code");
+		} else {
+			clear();
+			filesMgr.finalLoad_ReloadStep();
+		}
 	}
 	
 	public void setPeriod(int value) {
@@ -129,6 +150,7 @@ public class ViewMediator {
 	}
 	
 	public void makeReady(String s) {
+		loaded = model.snapshot();
 		stepControl.setAutoStepOn(false);
 		setCurrentState(States.PROGRAM_LOADED_NOT_AUTOSTEPPING);
 		currentState.enter();
@@ -137,78 +159,113 @@ public class ViewMediator {
 	}
 	
 	public void execute() {
-		while (currentState != States.PROGRAM_HALTED &&
+		if (currentState != States.PROGRAM_HALTED &&
+				currentState != States.NOTHING_LOADED) {
+			report(runUnlogged(() -> model.run(Long.MAX_VALUE)));
+		}
+		notify("");
+	}
+	
+	/**
+	 * Runs with the undo log taken off, so the run uses the engine
+	 * instead of executing one observed step at a time. The steps of
+	 * the run cannot be undone, so the log starts again after it.
+	 */
+	private RunResult runUnlogged(Supplier<RunResult> run) {
+		UndoLog log = model.getUndoLog();
+		model.setUndoLog(null);
+		try {
+			return run.get();
+		} finally {
+			model.setUndoLog(log);
+		}
+	}
+	
+	/**
+	 * Runs without repainting until the instruction at the line is next,
+	 * a breakpoint is reached or the program stops, then repaints once
+	 */
+	public void runToCursor(int line) {
+		if (currentState != States.PROGRAM_HALTED &&
 				currentState != States.NOTHING_LOADED) {
-				try {
-					model.step();
-				} catch (CodeAccessException e) {
-					JOptionPane.showMessageDialog(frame,
-							"Illegal access to code from line " + model.getPC() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Run time error",
-									JOptionPane.OK_OPTION);
-					System.out.println("Illegal access to code from line " +
-									model.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage());
-				} catch(ArrayIndexOutOfBoundsException e) {
-					JOptionPane.showMessageDialog(frame,
-							"ArrayIndexOutOfBounds on line " + model.getPC() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Array Index Out Of Bounds",
-									JOptionPane.OK_OPTION);
-					System.out.println("ArrayIndexOutOfBounds on line " +
-									model.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage());
-				} catch(NullPointerException e) {
-					JOptionPane.showMessageDialog(frame,
-							"NullPointerException on line " + model.getPC() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Null Pointer Exception",
-									JOptionPane.OK_OPTION);
-					System.out.println("NullPointerException on line " +
-									model.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage());
-				} catch(ParityCheckException e) {
-					JOptionPane.showMessageDialog(frame,
-							"ParityCheckException on line " + model.getPC() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Parity Check Exception",
-									JOptionPane.OK_OPTION);
-					System.out.println("ParityCheckException on line " +
-									model.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage());
-				} catch(IllegalInstructionException e) {
-					JOptionPane.showMessageDialog(frame,
-							"IllegalInstructionException on line " + model.getPC() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Illegal Instructions",
-									JOptionPane.OK_OPTION);
-					System.out.println("IllegalInstructionException on line " +
-									model.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage());
-				} catch(IllegalArgumentException e) {
-					JOptionPane.showMessageDialog(frame,
-							"IllegalArgumentException on line " + model.getPC() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Illegal Arguments",
-									JOptionPane.OK_OPTION);
-					System.out.println("IllegalArgumentException on line " +
-									model.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage());
-				} catch(DivideByZeroException e) {
-					JOptionPane.showMessageDialog(frame,
-							"DivideByZeroException on line " + model.getPC() + "\n"
-									+ "Exception message: " + e.getMessage(),
-									"Can't Divide by Zero",
-									JOptionPane.OK_OPTION);
-					System.out.println("DivideByZeroException on line " +
-									model.getPC()); // just for debugging
-					System.out.println("Exception message: " + e.getMessage());
-				}
+			if (currentState == States.AUTO_STEPPING) {
+				stepControl.setAutoStepOn(false);
+				currentState = States.PROGRAM_LOADED_NOT_AUTOSTEPPING;
+				currentState.enter();
+			}
+			report(runUnlogged(() -> model.runTo(line, Long.MAX_VALUE)));
 		}
 		notify("");
 	}
 	
+	/**
+	 * Shows why a run stopped, unless it stopped at a breakpoint or
+	 * the step limit, and marks the program halted if it cannot go on
+	 */
+	private void report(RunResult result) {
+		if (result.getReason() == RunResult.Reason.FAULT) {
+			reportFault(result.getException(), result.getPC());
+		}
+		else if (result.getReason() == RunResult.Reason.NON_TERMINATING) {
+			JOptionPane.showMessageDialog(frame,
+					"The program is in an endless loop at line " + result.getPC(),
+					"Endless loop",
+					JOptionPane.OK_OPTION);
+		}
+		else if (result.getReason() == RunResult.Reason.TIME_LIMIT) {
+			JOptionPane.showMessageDialog(frame,
+					"The program was stopped after running for "
+							+ RUN_TIME_LIMIT / 1_000_000_000L + " seconds at line " + result.getPC(),
+					"Time limit",
+					JOptionPane.OK_OPTION);
+		}
+		if (result.getReason() != RunResult.Reason.STEP_LIMIT
+				&& result.getReason() != RunResult.Reason.BREAKPOINT) {
+			setCurrentState(States.PROGRAM_HALTED);
+		}
+	}
+	
+	/**
+	 * Shows the dialog for a fault reported by MachineModel.run
+	 * @param e the exception the faulting instruction raised
+	 * @param pc the code address of the faulting instruction
+	 */
+	private void reportFault(RuntimeException e, int pc) {
+		String name;
+		String title;
+		if (e instanceof CodeAccessException) {
+			name = "Illegal access to code from";
+			title = "Run time error";
+		} else if (e instanceof ArrayIndexOutOfBoundsException) {
+			name = "ArrayIndexOutOfBounds on";
+			title = "Array Index Out Of Bounds";
+		} else if (e instanceof NullPointerException) {
+			name = "NullPointerException on";
+			title = "Null Pointer Exception";
+		} else if (e instanceof ParityCheckException) {
+			name = "ParityCheckException on";
+			title = "Parity Check Exception";
+		} else if (e instanceof IllegalInstructionException) {
+			name = "IllegalInstructionException on";
+			title = "Illegal Instructions";
+		} else if (e instanceof IllegalArgumentException) {
+			name = "IllegalArgumentException on";
+			title = "Illegal Arguments";
+		} else if (e instanceof DivideByZeroException) {
+			name = "DivideByZeroException on";
+			title = "Can't Divide by Zero";
+		} else {
+			throw e;
+		}
+		JOptionPane.showMessageDialog(frame,
+				name + " line " + pc + "\n"
+						+ "Exception message: " + e.getMessage(),
+						title,
+						JOptionPane.OK_OPTION);
+		System.out.println(name + " line " + pc); // just for debugging
+		System.out.println("Exception message: " + e.getMessage());
+	}
+	
 	public void assembleFile() {
 		filesMgr.assembleFile();
 	}
@@ -230,6 +287,25 @@ public class ViewMediator {
 		return currentState;
 	}
 
+	public boolean canStepBack() {
+		return currentState != States.AUTO_STEPPING && currentState != States.NOTHING_LOADED
+				&& model.getUndoLog() != null && model.getUndoLog().getUndoable() > 0;
+	}
+	
+	/**
+	 * Undoes the last step, also the HALT of a halted program
+	 */
+	public void stepBack() {
+		if (canStepBack()) {
+			model.stepBack();
+			if (currentState == States.PROGRAM_HALTED) {
+				setCurrentState(States.PROGRAM_LOADED_NOT_AUTOSTEPPING);
+				return;
+			}
+			notify("");
+		}
+	}
+	
 	public void step() {
 		if (currentState != States.PROGRAM_HALTED &&
 			currentState != States.NOTHING_LOADED) {
@@ -0,0 +1,59 @@
+package project;
+
+/**
+ * A watchpoint that fired: the access and the instruction that made it
+ */
+public class WatchEvent {
+
+	private final Watchpoint watchpoint;
+	private final int pc;
+	private final Instruction instruction;
+	private final int oldValue;
+	private final int value;
+
+	WatchEvent(Watchpoint watchpoint, int pc, Instruction instruction, int oldValue, int value) {
+		this.watchpoint = watchpoint;
+		this.pc = pc;
+		this.instruction = instruction;
+		this.oldValue = oldValue;
+		this.value = value;
+	}
+
+	public Watchpoint getWatchpoint() {
+		return watchpoint;
+	}
+
+	/**
+	 * @return the code address of the instruction that made the access
+	 */
+	public int getPC() {
+		return pc;
+	}
+
+	public Instruction getInstruction() {
+		return instruction;
+	}
+
+	/**
+	 * @return the value before a write, the value read for a read
+	 */
+	public int getOldValue() {
+		return oldValue;
+	}
+
+	/**
+	 * @return the value written or read
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	public String toString() {
+		String text = instruction == null ? "" : " " + instruction.getText().replaceAll("\\s+", " ").trim();
+		if (watchpoint.getKind() == Watchpoint.Kind.READ) {
+			return "Read " + watchpoint.getAddress() + " at " + pc + text + ": " + value;
+		}
+		return "Write " + watchpoint.getAddress() + " at " + pc + text + ": " + oldValue + " -> " + value;
+	}
+
+}
@@ -0,0 +1,83 @@
+package project;
+
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Watches one data address, see MachineModel.addWatchpoint. A watchpoint
+ * fires when an instruction reads or writes the address and the value
+ * read or written passes the condition, if there is one. It then either
+ * stops run() right after the instruction, with the reason WATCHPOINT,
+ * or calls its callback and lets the machine go on.
+ */
+public class Watchpoint {
+
+	public enum Kind {
+		READ, WRITE
+	}
+
+	private final int address;
+	private final Kind kind;
+	private final IntPredicate condition;
+	private final Consumer<WatchEvent> callback;
+
+	/**
+	 * @param condition the test of the value read or written, null to
+	 * fire on every access
+	 * @param callback called when the watchpoint fires, null to stop
+	 * the machine instead
+	 */
+	public Watchpoint(int address, Kind kind, IntPredicate condition, Consumer<WatchEvent> callback) {
+		if (address < 0) throw new IllegalArgumentException("Address must be at least 0");
+		if (kind == null) throw new IllegalArgumentException("Kind must not be null");
+		this.address = address;
+		this.kind = kind;
+		this.condition = condition;
+		this.callback = callback;
+	}
+
+	/**
+	 * @return a watchpoint that stops the machine when the address is read
+	 */
+	public static Watchpoint onRead(int address) {
+		return new Watchpoint(address, Kind.READ, null, null);
+	}
+
+	/**
+	 * @return a watchpoint that stops the machine when the address is written
+	 */
+	public static Watchpoint onWrite(int address) {
+		return new Watchpoint(address, Kind.WRITE, null, null);
+	}
+
+	/**
+	 * @return a watchpoint that stops the machine when a value that
+	 * passes the condition is written to the address
+	 */
+	public static Watchpoint onValue(int address, IntPredicate condition) {
+		return new Watchpoint(address, Kind.WRITE, condition, null);
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	boolean matches(int index, boolean write, int value) {
+		return index == address && write == (kind == Kind.WRITE)
+				&& (condition == null || condition.test(value));
+	}
+
+	Consumer<WatchEvent> getCallback() {
+		return callback;
+	}
+
+	public String toString() {
+		return "Watchpoint [" + kind + " " + address + (condition == null ? "" : ", conditional")
+				+ (callback == null ? "" : ", callback") + "]";
+	}
+
+}